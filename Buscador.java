@@ -1,30 +1,91 @@
-import utility.Stemmer;
-import utility.preprocesado;
+import utility.Acumulador;
+import utility.AlmacenPostings;
+import utility.Autocompletado;
+import utility.CacheIntersecciones;
+import utility.Consulta;
+import utility.Indice;
+import utility.Posiciones;
+import utility.Tupla;
 
 import java.io.*;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class Buscador {
 
-    // Indice invertido construido desde el archivo
-    private static final Map<String, List<DocumentoPeso>> indiceInvertido = new HashMap<>();
-    //           Mapa que guarda esto:
-    //             - Clave: el termino 
-    //             - Valor:la lLista de documentos que contienen el término, con sus pesos TF-IDF
+    // Directorio donde el indexador deja el índice
+    private static final String DIRECTORIO_INDICE = "utility";
+    // Generación del índice que usan las consultas nuevas. Las consultas en curso
+    // siguen con la generación que adquirieron hasta que terminan
+    static final AtomicReference<Indice> indiceActual = new AtomicReference<>();
+    // Número de resultados que se muestran en modo interactivo
+    private static final int RESULTADOS_INTERACTIVO = 10;
+    // Las líneas que empiezan así piden sugerencias para la última palabra en vez de buscar
+    private static final String COMANDO_SUGERIR = "sugerir ";
+    // Un término con más de GALOPE veces tantos documentos como candidatos tiene la
+    // consulta se puntúa saltando a cada candidato en vez de sumar su lista entera
+    private static final int GALOPE = 16;
+    // Con -fueraHeap los postings y el diccionario se guardan en memoria nativa
+    private static boolean fueraDelHeap = false;
+    // Memoria de la caché de intersecciones de pares de términos de cada generación (0 = sin caché)
+    private static long presupuestoIntersecciones = 32L << 20;
 
     public static void main(String[] args) {
+        opcionesIndice(args);
         // Construir el índice desde el archivo en la carpeta "utility"
         try {
-            cargarIndexArchivo("utility/indice_invertido.dat");
+            indiceActual.set(cargarIndice());
         } catch (IOException e) {
             System.err.println("Error al cargar el índice invertido: " + e.getMessage());
             return; // Termina el programa si no se puede cargar el archivo
         }
+        if (fueraDelHeap) {
+            System.out.printf(Locale.ROOT, "Postings fuera del heap: %.1f MB%n",
+                    indiceActual.get().postings.bytes() / 1048576.0);
+        }
+
+        // Modo por lotes: java Buscador -lote consultas.txt -salida run.txt [-hilos N] [-k K] [-etiqueta nombre]
+        // Con -recarga S se comprueba cada S segundos si hay una generación nueva (0 = nunca)
+        // Con -fueraHeap (y --add-modules jdk.incubator.foreign) los postings no ocupan el heap
+        // Con -cacheIntersecciones MB se cambia la memoria de la caché de pares de términos
+        String ficheroConsultas = null, ficheroSalida = "run.txt", etiqueta = "Buscador";
+        int hilos = Runtime.getRuntime().availableProcessors(), k = 1000, recarga = 5;
+        for (int i = 0; i + 1 < args.length; i++) {
+            switch (args[i]) {
+                case "-recarga": recarga = Integer.parseInt(args[++i]); break;
+                case "-lote": ficheroConsultas = args[++i]; break;
+                case "-salida": ficheroSalida = args[++i]; break;
+                case "-hilos": hilos = Math.max(1, Integer.parseInt(args[++i])); break;
+                case "-k": k = Math.max(1, Integer.parseInt(args[++i])); break;
+                case "-etiqueta": etiqueta = args[++i]; break;
+            }
+        }
+        if (ficheroConsultas != null) {
+            try {
+                ejecutarLote(ficheroConsultas, ficheroSalida, hilos, k, etiqueta);
+                CacheIntersecciones intersecciones = indiceActual.get().intersecciones();
+                if (intersecciones != null) {
+                    System.out.println("Caché de intersecciones: " + intersecciones);
+                }
+            } catch (IOException e) {
+                System.err.println("Error en el modo por lotes: " + e.getMessage());
+            }
+            return;
+        }
+
+        if (recarga > 0) {
+            vigilarIndice(recarga);
+        }
 
         Scanner scanner = new Scanner(System.in);
         System.out.println("Bienvenido al buscador de documentos.");
-        System.out.println("Introduce una consulta (puedes usar operadores AND/OR):");
+        System.out.println("Introduce una consulta (puedes usar operadores AND/OR/NOT, paréntesis, prefijo* y \"frases\"):");
+        System.out.println("Escribe \"sugerir\" delante para ver cómo completar la última palabra (por ejemplo, sugerir prot).");
 
         while (true) {
             System.out.print("> ");
@@ -36,11 +97,14 @@ public class Buscador {
                 break;
             }
 
-            // Procesar la consulta
-            query = preprocesado.procesar(query);
+            // "sugerir texto" muestra sugerencias en lugar de buscar
+            if (query.regionMatches(true, 0, COMANDO_SUGERIR, 0, COMANDO_SUGERIR.length())) {
+                mostrarSugerencias(query.substring(COMANDO_SUGERIR.length()).trim());
+                continue;
+            }
 
             // Realizar la búsqueda y ranking
-            Map<String, Double> rankResultado = rankDocumentos(query);
+            Map<String, Double> rankResultado = rankDocumentos(query, RESULTADOS_INTERACTIVO);
 
             // Mostrar los resultados
             monstrarResultados(rankResultado);
@@ -49,128 +113,666 @@ public class Buscador {
         scanner.close();
     }
 
-    private static void cargarIndexArchivo(String fileName) throws IOException {
-        try (BufferedReader reader = new BufferedReader(new FileReader(fileName))) {
-            String line;
+    // Ejecuta todas las consultas del fichero en paralelo contra el índice (que solo se
+    // lee) y escribe los resultados en formato de run TREC:
+    //     qid Q0 documento posición puntuación etiqueta
+    // Cada línea del fichero de consultas es "qid<TAB>consulta" (ver leerConsultas).
+    // Los tiempos de cada consulta van a salida.tiempos
+    private static void ejecutarLote(String ficheroConsultas, String ficheroSalida, int hilos, int k,
+            String etiqueta) throws IOException {
+        List<String[]> consultas = leerConsultas(ficheroConsultas);
+
+        System.out.println("Ejecutando " + consultas.size() + " consultas con " + hilos + " hilos...");
+        ExecutorService pool = Executors.newFixedThreadPool(hilos);
+        List<Future<Tupla<Map<String, Double>, Long>>> pendientes = new ArrayList<>();
+        long inicio = System.nanoTime();
+        for (String[] consulta : consultas) {
+            pendientes.add(pool.submit(() -> {
+                long t = System.nanoTime();
+                Map<String, Double> resultado = rankDocumentos(consulta[1], k);
+                return new Tupla<>(resultado, System.nanoTime() - t);
+            }));
+        }
+
+        // Los resultados se escriben en el orden del fichero de consultas
+        long[] tiempos = new long[consultas.size()];
+        try (BufferedWriter run = new BufferedWriter(new FileWriter(ficheroSalida));
+             BufferedWriter tiemposWriter = new BufferedWriter(new FileWriter(ficheroSalida + ".tiempos"))) {
+            for (int q = 0; q < consultas.size(); q++) {
+                Tupla<Map<String, Double>, Long> resultado;
+                try {
+                    resultado = pendientes.get(q).get();
+                } catch (Exception e) {
+                    System.err.println("Error en la consulta " + consultas.get(q)[0] + ": " + e.getMessage());
+                    resultado = new Tupla<>(Collections.emptyMap(), 0L);
+                }
+                String qid = consultas.get(q)[0];
+                int posicion = 1;
+                for (Map.Entry<String, Double> doc : resultado.first.entrySet()) {
+                    run.write(qid + " Q0 " + doc.getKey() + " " + posicion++ + " "
+                            + String.format(Locale.ROOT, "%.6f", doc.getValue()) + " " + etiqueta);
+                    run.newLine();
+                }
+                tiempos[q] = resultado.second;
+                tiemposWriter.write(qid + "\t" + String.format(Locale.ROOT, "%.3f", resultado.second / 1e6));
+                tiemposWriter.newLine();
+            }
+        } finally {
+            pool.shutdown();
+        }
+        long total = System.nanoTime() - inicio;
+
+        if (tiempos.length > 0) {
+            Arrays.sort(tiempos);
+            System.out.printf(Locale.ROOT, "Consultas: %d, tiempo total: %.1f ms, %.1f consultas/s%n",
+                    tiempos.length, total / 1e6, tiempos.length / (total / 1e9));
+            System.out.printf(Locale.ROOT, "Latencia (ms): p50 %.3f, p99 %.3f, max %.3f%n",
+                    tiempos[tiempos.length / 2] / 1e6,
+                    tiempos[Math.min(tiempos.length - 1, (int) (tiempos.length * 0.99))] / 1e6,
+                    tiempos[tiempos.length - 1] / 1e6);
+        }
+        System.out.println("Resultados guardados en " + ficheroSalida);
+    }
+
+    // Lee un fichero de consultas del modo por lotes: cada línea es "qid<TAB>consulta" y
+    // cada elemento devuelto es {qid, consulta}. Las líneas vacías se saltan; cualquier
+    // otra línea sin tabulador, sin qid o sin consulta es un error
+    static List<String[]> leerConsultas(String ficheroConsultas) throws IOException {
+        List<String[]> consultas = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(ficheroConsultas))) {
+            String line; int numero = 0;
             while ((line = reader.readLine()) != null) {
-                // Parsear cada línea del archivo
-                String[] parts = line.split(";");
-                if (parts.length < 3) continue; // Saltar líneas mal formateadas
-    
-                String word = parts[0].toLowerCase(); // Primera parte: palabra clave
-                double idf = Double.parseDouble(parts[1]); // Segunda parte: IDF
-                List<DocumentoPeso> documents = new ArrayList<>();
-    
-                // Procesar documentos-tf_idf asociados
-                for (int i = 2; i < parts.length; i++) {
-                    String[] docParts = parts[i].split("-");
-                    if (docParts.length > 1) {
-                        String nombreDocumento = docParts[0]; // Guarda el documento seguido del tf_idf-idf
-                        double tf_idf = Double.parseDouble(docParts[1]);
-                        documents.add(new DocumentoPeso(nombreDocumento, tf_idf, idf));
-                    }
+                numero++;
+                if (line.trim().isEmpty()) continue;
+                int tab = line.indexOf('\t');
+                String qid = tab < 0 ? "" : line.substring(0, tab).trim();
+                String consulta = tab < 0 ? "" : line.substring(tab + 1).trim();
+                if (qid.isEmpty() || consulta.isEmpty()) {
+                    throw new IOException(ficheroConsultas + ":" + numero
+                            + ": se esperaba \"qid<TAB>consulta\"");
                 }
-    
-                // Agregar al índice invertido
-                indiceInvertido.put(word, documents);
+                consultas.add(new String[]{qid, consulta});
+            }
+        }
+        return consultas;
+    }
+
+    // Comprueba periódicamente si el indexador ha dejado una generación nueva. Si es
+    // así la carga en segundo plano y la publica de forma atómica; la anterior se
+    // libera y se cierra cuando termina la última consulta que la estaba usando
+    private static void vigilarIndice(int segundos) {
+        ScheduledExecutorService vigilante = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread hilo = new Thread(r, "vigilante-indice");
+            hilo.setDaemon(true);
+            return hilo;
+        });
+        vigilante.scheduleWithFixedDelay(() -> {
+            try {
+                String enDisco = Indice.generacionEnDisco(DIRECTORIO_INDICE);
+                if (enDisco.equals(indiceActual.get().generacion)) {
+                    return;
+                }
+                Indice nuevo = cargarIndice();
+                Indice anterior = indiceActual.getAndSet(nuevo);
+                anterior.liberar();
+                System.out.println("\nNueva generación del índice cargada: " + nuevo.generacion);
+            } catch (IOException | RuntimeException e) {
+                // Si el índice nuevo no se puede cargar se sigue con el actual
+                System.err.println("No se pudo cargar la nueva generación del índice: " + e.getMessage());
+            }
+        }, segundos, segundos, TimeUnit.SECONDS);
+    }
+
+    // Opciones que afectan a cómo se carga cada generación del índice: -fueraHeap y
+    // -cacheIntersecciones MB
+    static void opcionesIndice(String[] args) {
+        fueraDelHeap = Arrays.asList(args).contains("-fueraHeap");
+        int opcionCache = Arrays.asList(args).indexOf("-cacheIntersecciones");
+        if (opcionCache >= 0 && opcionCache + 1 < args.length) {
+            presupuestoIntersecciones = Math.max(0, Long.parseLong(args[opcionCache + 1])) << 20;
+        }
+    }
+
+    static Indice cargarIndice() throws IOException {
+        Indice indice = null;
+        if (fueraDelHeap) {
+            AlmacenPostings almacen = AlmacenPostings.fueraDelHeap();
+            if (almacen != null) {
+                indice = Indice.cargar(DIRECTORIO_INDICE, almacen);
+            } else {
+                System.err.println("Sin --add-modules jdk.incubator.foreign el índice se carga en el heap.");
+                fueraDelHeap = false;
+            }
+        }
+        if (indice == null) {
+            indice = Indice.cargar(DIRECTORIO_INDICE);
+        }
+        // Cada generación empieza con su caché vacía
+        if (presupuestoIntersecciones > 0) {
+            indice.usarCacheIntersecciones(presupuestoIntersecciones);
+        }
+        // Se avisa una vez al cargar y no en cada consulta con frase
+        if (indice.posiciones() == null) {
+            System.err.println("El índice no tiene posiciones: las frases se evaluarán como AND.");
+        }
+        return indice;
+    }
+
+    // Adquiere la generación actual. Si justo se ha sustituido y cerrado, se vuelve a
+    // leer la referencia
+    private static Indice adquirirIndice() {
+        while (true) {
+            Indice indice = indiceActual.get();
+            if (indice.adquirir()) {
+                return indice;
+            }
+        }
+    }
+
+    // Sugiere cómo completar la última palabra de la consulta, manteniendo las anteriores
+    private static void mostrarSugerencias(String query) {
+        int corte = query.lastIndexOf(' ') + 1;
+        String anteriores = query.substring(0, corte);
+        String prefijo = query.substring(corte).toLowerCase();
+        List<String> sugerencias;
+        Indice indice = adquirirIndice();
+        try {
+            Autocompletado autocompletado = indice.autocompletado();
+            if (autocompletado == null) {
+                System.out.println("El índice no tiene sugerencias de autocompletado.");
+                return;
             }
+            sugerencias = autocompletado.completar(prefijo,
+                    Math.min(RESULTADOS_INTERACTIVO, Autocompletado.MAX_SUGERENCIAS));
+        } finally {
+            indice.liberar();
+        }
+        if (sugerencias.isEmpty()) {
+            System.out.println("No hay sugerencias para \"" + prefijo + "\".");
+            return;
+        }
+        for (String sugerencia : sugerencias) {
+            System.out.println("  " + anteriores + sugerencia);
+        }
+    }
+
+    // Devuelve los k documentos con mayor puntuación, de mayor a menor
+    static Map<String, Double> rankDocumentos(String query, int k) {
+        // Parsear la consulta: cada término se normaliza y se le aplica stemming una vez
+        Consulta consulta = Consulta.parsear(query);
+        if (consulta == null) {
+            return Collections.emptyMap();
+        }
+
+        // Toda la consulta usa la misma generación del índice
+        Indice indice = adquirirIndice();
+        try {
+            return rankDocumentos(indice, consulta, k);
+        } finally {
+            indice.liberar();
         }
     }
 
-    private static Map<String, Double> rankDocumentos(String query) {
-        // Crear una instancia del stemmer
-        Stemmer stemmer = new Stemmer();
+    // Los k mejores documentos de una consulta ya parseada en un índice concreto
+    static Map<String, Double> rankDocumentos(Indice indice, Consulta consulta, int k) {
+        // Sin ningún término positivo (por ejemplo "NOT x") todos los documentos que
+        // cumplen la consulta tendrían puntaje 0, así que no se devuelve ninguno
+        Set<Integer> positivos = terminosPositivos(indice, consulta);
+        if (positivos.isEmpty()) {
+            return Collections.emptyMap();
+        }
 
-        // Determinar el tipo de consulta
-        boolean esAndQuery = query.contains("and");
-        boolean esOrQuery = query.contains("or");
-    
-        // Si la consulta tiene AND o OR, dividirla en términos
-        String[] terminos;
-        if (esAndQuery) {
-            terminos = query.split("\\s*and\\s*");  // Se maneja AND con espacios opcionales
-        } else if (esOrQuery) {
-            terminos = query.split("\\s*or\\s*");   // Se maneja OR con espacios opcionales
+        // Documentos que cumplen la consulta, ordenados por docID. Si es un AND que
+        // empieza por un par de la caché, todos los candidatos están en el par
+        CacheIntersecciones.Interseccion par = null;
+        int[] documentoRelevante;
+        if (consulta instanceof Consulta.Y) {
+            par = parInicial(indice, (Consulta.Y) consulta);
+            documentoRelevante = evaluarY(indice, (Consulta.Y) consulta, par);
         } else {
-            // Si no contiene AND ni OR, tratamos toda la consulta como un único término
-            terminos = new String[]{query.trim()};  // Se toma como un único término
-        }
-    
-        Set<String> documentoRelevante = new HashSet<>();
-        Map<String, Double> puntuacionDocumento = new HashMap<>(); // Para acumular los puntajes
-    
-        for (String term : terminos) {
-            term = term.trim();  // Limpiar posibles espacios extras
-    
-            if (term.isEmpty()) continue;  // Asegurarse de que no estamos procesando términos vacíos
-
-            // Aplicar stemming al término
-            stemmer.add(term.toCharArray(), term.length());
-            stemmer.stem();
-            term = stemmer.toString();  // Obtener la raíz del término
-    
-            List<DocumentoPeso> pesoDocumento = indiceInvertido.getOrDefault(term, Collections.emptyList());
-            Set<String> documentParaTermino = pesoDocumento.stream()
-                    .map(dw -> dw.nombreDocumento)
-                    .collect(Collectors.toSet());
-    
-            if (esAndQuery) {
-                // Si es una consulta con AND, hacemos la intersección de documentos
-                if (documentoRelevante.isEmpty()) {
-                    documentoRelevante = new HashSet<>(documentParaTermino);
+            documentoRelevante = evaluar(indice, consulta);
+        }
+
+        // Si no hay documentos relevantes, retornar un mapa vacío
+        if (documentoRelevante.length == 0) {
+            return Collections.emptyMap();
+        }
+
+        // Calcular puntajes en el acumulador denso del hilo; después solo se leen los
+        // documentos relevantes. Una lista mucho más larga que los candidatos (un
+        // término frecuente en un AND selectivo) solo se lee en los candidatos, y el
+        // resto se suman enteras, que es lo que sale a cuenta en un OR. Los dos términos
+        // del par se suman en sus documentos comunes. Como los términos se suman
+        // siempre en el mismo orden, los candidatos tienen exactamente la misma
+        // puntuación se sume como se sume cada lista
+        Acumulador acumulador = Acumulador.deHilo(indice.numDocumentos());
+        try {
+            for (int id : positivos) {
+                if (par != null && id == par.terminoA) {
+                    acumulador.sumar(par.docs, par.puntuacionA, par.docs.length);
+                } else if (par != null && id == par.terminoB) {
+                    acumulador.sumar(par.docs, par.puntuacionB, par.docs.length);
+                } else if (indice.df(id) / GALOPE > documentoRelevante.length) {
+                    sumarCandidatos(indice.cursor(id), documentoRelevante, acumulador);
                 } else {
-                    documentoRelevante.retainAll(documentParaTermino); // Intersección
+                    indice.postings.sumar(id, acumulador);
+                }
+            }
+
+            // Los k mejores, de mayor a menor puntaje
+            Map<String, Double> resultado = new LinkedHashMap<>();
+            for (int doc : acumulador.mejores(documentoRelevante, k)) {
+                resultado.put(indice.nombresDocumentos.get(doc), (double) acumulador.puntuacion(doc));
+            }
+            return resultado;
+        } finally {
+            acumulador.limpiar();
+        }
+    }
+
+    // Suma la puntuación del término solo en los candidatos (ordenados por docID),
+    // saltando por su lista con el cursor
+    private static void sumarCandidatos(AlmacenPostings.Cursor cursor, int[] candidatos, Acumulador acumulador) {
+        for (int doc : candidatos) {
+            if (cursor.avanzarA(doc)) {
+                acumulador.sumar(doc, cursor.puntuacion());
+            } else if (cursor.doc() == AlmacenPostings.Cursor.FIN) {
+                return;
+            }
+        }
+    }
+
+    // Evalúa un nodo de la consulta y devuelve sus documentos ordenados por docID. Las
+    // listas de los términos solo se copian cuando son el resultado; para combinarlas
+    // con otras se recorren con un cursor
+    private static int[] evaluar(Indice indice, Consulta consulta) {
+        if (consulta instanceof Consulta.Termino) {
+            return indice.docs(indice.idTermino(((Consulta.Termino) consulta).termino));
+        }
+        if (consulta instanceof Consulta.Prefijo) {
+            int[] resultado = new int[0];
+            for (int id : indice.diccionario.buscarPrefijo(((Consulta.Prefijo) consulta).prefijo)) {
+                resultado = union(resultado, indice.cursor(id));
+            }
+            return resultado;
+        }
+        if (consulta instanceof Consulta.O) {
+            int[] resultado = new int[0];
+            for (Consulta hijo : ((Consulta.O) consulta).hijos) {
+                resultado = hijo instanceof Consulta.Termino ? union(resultado, cursor(indice, hijo))
+                        : union(resultado, evaluar(indice, hijo));
+            }
+            return resultado;
+        }
+        if (consulta instanceof Consulta.Frase) {
+            return evaluarFrase(indice, (Consulta.Frase) consulta);
+        }
+        if (consulta instanceof Consulta.No) {
+            Consulta hijo = ((Consulta.No) consulta).hijo;
+            return hijo instanceof Consulta.Termino ? filtrar(todos(indice), cursor(indice, hijo), false)
+                    : diferencia(todos(indice), evaluar(indice, hijo));
+        }
+
+        Consulta.Y y = (Consulta.Y) consulta;
+        return evaluarY(indice, y, parInicial(indice, y));
+    }
+
+    // AND: los hijos positivos se intersecan del más raro al más frecuente y los
+    // negados se restan al final. En cuanto el resultado queda vacío se para. Si hay
+    // par de la caché se empieza por él y sus dos términos ya no se vuelven a intersecar
+    private static int[] evaluarY(Indice indice, Consulta.Y consulta, CacheIntersecciones.Interseccion par) {
+        List<Consulta> positivos = new ArrayList<>();
+        List<Consulta> negativos = new ArrayList<>();
+        for (Consulta hijo : consulta.hijos) {
+            if (hijo instanceof Consulta.No) {
+                negativos.add(((Consulta.No) hijo).hijo);
+            } else if (par == null || !(hijo instanceof Consulta.Termino)
+                    || !esDelPar(indice.idTermino(((Consulta.Termino) hijo).termino), par)) {
+                positivos.add(hijo);
+            }
+        }
+        positivos.sort(Comparator.comparingLong(hijo -> coste(indice, hijo)));
+
+        int[] resultado;
+        int siguiente = 0;
+        if (par != null) {
+            resultado = par.docs;
+        } else if (positivos.isEmpty()) {
+            resultado = todos(indice);
+        } else {
+            resultado = evaluar(indice, positivos.get(siguiente++));
+        }
+        // Los términos sueltos se comprueban con su cursor, sin copiar su lista
+        for (int i = siguiente; i < positivos.size() && resultado.length > 0; i++) {
+            Consulta hijo = positivos.get(i);
+            resultado = hijo instanceof Consulta.Termino ? filtrar(resultado, cursor(indice, hijo), true)
+                    : interseccion(resultado, evaluar(indice, hijo));
+        }
+        for (int i = 0; i < negativos.size() && resultado.length > 0; i++) {
+            Consulta hijo = negativos.get(i);
+            resultado = hijo instanceof Consulta.Termino ? filtrar(resultado, cursor(indice, hijo), false)
+                    : diferencia(resultado, evaluar(indice, hijo));
+        }
+        return resultado;
+    }
+
+    private static AlmacenPostings.Cursor cursor(Indice indice, Consulta termino) {
+        return indice.cursor(indice.idTermino(((Consulta.Termino) termino).termino));
+    }
+
+    // Una frase se evalúa primero como un AND de sus términos y después se comprueban
+    // las posiciones solo en los documentos que quedan
+    private static int[] evaluarFrase(Indice indice, Consulta.Frase frase) {
+        int[] ids = new int[frase.terminos.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = indice.idTermino(frase.terminos.get(i));
+            if (ids[i] < 0) {
+                return new int[0];
+            }
+        }
+        // Se copia la lista más corta y las demás se recorren con su cursor
+        int[] porDf = ids.clone();
+        for (int i = 1; i < porDf.length; i++) {
+            if (indice.df(porDf[i]) < indice.df(porDf[0])) {
+                int aux = porDf[0];
+                porDf[0] = porDf[i];
+                porDf[i] = aux;
+            }
+        }
+        int[] candidatos = indice.docs(porDf[0]);
+        for (int i = 1; i < porDf.length && candidatos.length > 0; i++) {
+            candidatos = filtrar(candidatos, indice.cursor(porDf[i]), true);
+        }
+        if (candidatos.length == 0) {
+            return candidatos;
+        }
+
+        try {
+            Posiciones posiciones = indice.posiciones();
+            if (posiciones == null) {
+                // Sin índice posicional la frase se queda en un AND de sus términos (se
+                // avisa al cargar el índice)
+                return candidatos;
+            }
+            Posiciones.Cursor[] cursores = new Posiciones.Cursor[ids.length];
+            for (int i = 0; i < ids.length; i++) {
+                cursores[i] = posiciones.cursor(ids[i]);
+            }
+            int[] resultado = new int[candidatos.length];
+            int n = 0;
+            int[][] posicionesDoc = new int[ids.length][];
+            for (int doc : candidatos) {
+                boolean esta = true;
+                for (int i = 0; i < ids.length && esta; i++) {
+                    esta = cursores[i].avanzarA(doc);
+                    if (esta) {
+                        posicionesDoc[i] = cursores[i].posiciones();
+                    }
+                }
+                if (esta && (frase.distancia == 0 ? esFraseExacta(posicionesDoc) : estanCerca(posicionesDoc, frase.distancia))) {
+                    resultado[n++] = doc;
+                }
+            }
+            return Arrays.copyOf(resultado, n);
+        } catch (IOException e) {
+            System.err.println("Error al leer las posiciones: " + e.getMessage());
+            return candidatos;
+        }
+    }
+
+    // Los términos aparecen seguidos y en orden
+    private static boolean esFraseExacta(int[][] posiciones) {
+        for (int inicio : posiciones[0]) {
+            boolean encaja = true;
+            for (int i = 1; i < posiciones.length && encaja; i++) {
+                encaja = Arrays.binarySearch(posiciones[i], inicio + i) >= 0;
+            }
+            if (encaja) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Hay una ventana de como mucho "distancia" posiciones con todos los términos.
+    // Se avanza siempre la lista con la posición más pequeña
+    private static boolean estanCerca(int[][] posiciones, int distancia) {
+        int[] indices = new int[posiciones.length];
+        while (true) {
+            int minimo = Integer.MAX_VALUE, maximo = Integer.MIN_VALUE, listaMinimo = 0;
+            for (int i = 0; i < posiciones.length; i++) {
+                int p = posiciones[i][indices[i]];
+                if (p < minimo) {
+                    minimo = p;
+                    listaMinimo = i;
+                }
+                maximo = Math.max(maximo, p);
+            }
+            if (maximo - minimo <= distancia) {
+                return true;
+            }
+            if (++indices[listaMinimo] == posiciones[listaMinimo].length) {
+                return false;
+            }
+        }
+    }
+
+    // Intersección de la caché para los dos términos sueltos más raros del AND, o null
+    // si no hay caché, no hay dos términos distintos o el par todavía no se ha ganado
+    // la entrada
+    private static CacheIntersecciones.Interseccion parInicial(Indice indice, Consulta.Y consulta) {
+        CacheIntersecciones intersecciones = indice.intersecciones();
+        if (intersecciones == null) {
+            return null;
+        }
+        int a = -1, b = -1;
+        for (Consulta hijo : consulta.hijos) {
+            if (!(hijo instanceof Consulta.Termino)) {
+                continue;
+            }
+            int id = indice.idTermino(((Consulta.Termino) hijo).termino);
+            // Un término que no está en el índice deja el AND vacío
+            if (id < 0) {
+                return null;
+            }
+            if (id == a || id == b) {
+                continue;
+            }
+            if (a < 0 || indice.df(id) < indice.df(a)) {
+                b = a;
+                a = id;
+            } else if (b < 0 || indice.df(id) < indice.df(b)) {
+                b = id;
+            }
+        }
+        return b < 0 ? null : intersecciones.obtener(a, b);
+    }
+
+    private static boolean esDelPar(int id, CacheIntersecciones.Interseccion par) {
+        return id == par.terminoA || id == par.terminoB;
+    }
+
+    // Estimación del número de documentos que devuelve un nodo (su df)
+    private static long coste(Indice indice, Consulta consulta) {
+        if (consulta instanceof Consulta.Termino) {
+            return indice.df(indice.idTermino(((Consulta.Termino) consulta).termino));
+        }
+        if (consulta instanceof Consulta.Prefijo) {
+            long total = 0;
+            for (int id : indice.diccionario.buscarPrefijo(((Consulta.Prefijo) consulta).prefijo)) {
+                total += indice.df(id);
+            }
+            return Math.min(total, indice.numDocumentos());
+        }
+        if (consulta instanceof Consulta.Frase) {
+            long minimo = indice.numDocumentos();
+            for (String termino : ((Consulta.Frase) consulta).terminos) {
+                minimo = Math.min(minimo, indice.df(indice.idTermino(termino)));
+            }
+            return minimo;
+        }
+        if (consulta instanceof Consulta.O) {
+            long total = 0;
+            for (Consulta hijo : ((Consulta.O) consulta).hijos) {
+                total += coste(indice, hijo);
+            }
+            return Math.min(total, indice.numDocumentos());
+        }
+        if (consulta instanceof Consulta.No) {
+            return indice.numDocumentos() - coste(indice, ((Consulta.No) consulta).hijo);
+        }
+        long minimo = indice.numDocumentos();
+        for (Consulta hijo : ((Consulta.Y) consulta).hijos) {
+            if (!(hijo instanceof Consulta.No)) {
+                minimo = Math.min(minimo, coste(indice, hijo));
+            }
+        }
+        return minimo;
+    }
+
+    // termID de los términos que puntúan, incluidos los que salen de un prefijo
+    private static Set<Integer> terminosPositivos(Indice indice, Consulta consulta) {
+        Set<Integer> ids = new LinkedHashSet<>();
+        if (consulta instanceof Consulta.Termino) {
+            int id = indice.idTermino(((Consulta.Termino) consulta).termino);
+            if (id >= 0) {
+                ids.add(id);
+            }
+        } else if (consulta instanceof Consulta.Frase) {
+            for (String termino : ((Consulta.Frase) consulta).terminos) {
+                int id = indice.idTermino(termino);
+                if (id >= 0) {
+                    ids.add(id);
+                }
+            }
+        } else if (consulta instanceof Consulta.Prefijo) {
+            for (int id : indice.diccionario.buscarPrefijo(((Consulta.Prefijo) consulta).prefijo)) {
+                if (id < indice.numTerminos()) {
+                    ids.add(id);
                 }
-            } else if (esOrQuery) {
-                // Si es una consulta con OR, hacemos la unión de documentos
-                documentoRelevante.addAll(documentParaTermino);
+            }
+        } else if (consulta instanceof Consulta.Y) {
+            for (Consulta hijo : ((Consulta.Y) consulta).hijos) {
+                ids.addAll(terminosPositivos(indice, hijo));
+            }
+        } else if (consulta instanceof Consulta.O) {
+            for (Consulta hijo : ((Consulta.O) consulta).hijos) {
+                ids.addAll(terminosPositivos(indice, hijo));
+            }
+        }
+        return ids;
+    }
+
+    private static int[] todos(Indice indice) {
+        int[] resultado = new int[indice.numDocumentos()];
+        for (int doc = 0; doc < resultado.length; doc++) {
+            resultado[doc] = doc;
+        }
+        return resultado;
+    }
+
+    // Intersección de dos listas ordenadas. Se recorre la más corta y se avanza en
+    // la larga con búsqueda exponencial, así una lista rara apenas toca la frecuente
+    private static int[] interseccion(int[] a, int[] b) {
+        if (a.length > b.length) {
+            int[] aux = a;
+            a = b;
+            b = aux;
+        }
+        int[] resultado = new int[a.length];
+        int n = 0, j = 0;
+        for (int i = 0; i < a.length && j < b.length; i++) {
+            int salto = 1;
+            while (j + salto < b.length && b[j + salto] < a[i]) {
+                j += salto;
+                salto <<= 1;
+            }
+            int pos = Arrays.binarySearch(b, j, Math.min(j + salto + 1, b.length), a[i]);
+            if (pos >= 0) {
+                resultado[n++] = a[i];
+                j = pos + 1;
             } else {
-                // Implícito OR si no hay operadores
-                documentoRelevante.addAll(documentParaTermino);
+                j = -pos - 1;
             }
         }
-    
-        // Si no hay documentos relevantes, retornar un mapa vacío
-        if (documentoRelevante.isEmpty()) {
-            return Collections.emptyMap();
+        return Arrays.copyOf(resultado, n);
+    }
+
+    // Los documentos que están (o que no están, si estan es false) en la lista del cursor
+    private static int[] filtrar(int[] docs, AlmacenPostings.Cursor cursor, boolean estan) {
+        int[] resultado = new int[docs.length];
+        int n = 0;
+        for (int doc : docs) {
+            if (cursor.avanzarA(doc) == estan) {
+                resultado[n++] = doc;
+            }
         }
-    
-        // Calcular puntajes para los documentos relevantes
-        for (String term : terminos) {
-            term = term.trim();  // Limpiar espacios
-    
-            if (term.isEmpty()) continue;  // Saltar si el término está vacío
-
-            // Aplica steming otra vez antes de calcular puntajes
-            stemmer.add(term.toCharArray(), term.length());
-            stemmer.stem();
-            term = stemmer.toString();
-
-            List<DocumentoPeso> pesoDocumento = indiceInvertido.getOrDefault(term, Collections.emptyList());
-            for (DocumentoPeso docWeight : pesoDocumento) {
-                if (documentoRelevante.contains(docWeight.nombreDocumento)) {
-
-                    double score = docWeight.tf_idf * docWeight.idf;
-                    puntuacionDocumento.merge(docWeight.nombreDocumento, score, Double::sum);
-                    
+        return n == docs.length ? docs : Arrays.copyOf(resultado, n);
+    }
+
+    // Unión de una lista ordenada con la lista del cursor
+    private static int[] union(int[] a, AlmacenPostings.Cursor cursor) {
+        int[] resultado = new int[a.length + cursor.df()];
+        int i = 0, n = 0;
+        int doc = cursor.doc();
+        while (i < a.length && doc != AlmacenPostings.Cursor.FIN) {
+            if (a[i] < doc) {
+                resultado[n++] = a[i++];
+            } else {
+                if (a[i] == doc) {
+                    i++;
                 }
+                resultado[n++] = doc;
+                cursor.siguiente();
+                doc = cursor.doc();
             }
         }
-    
-        // Ordenar los documentos por puntaje en orden descendente
-        return puntuacionDocumento.entrySet()
-                .stream()
-                .sorted((a, b) -> Double.compare(b.getValue(), a.getValue()))
-                .limit(10) // Mostrar solo los 10 mejores resultados
-                .collect(Collectors.toMap(
-                        Map.Entry::getKey,
-                        Map.Entry::getValue,
-                        (e1, e2) -> e1,
-                        LinkedHashMap::new
-                ));
+        while (i < a.length) {
+            resultado[n++] = a[i++];
+        }
+        for (; doc != AlmacenPostings.Cursor.FIN; cursor.siguiente(), doc = cursor.doc()) {
+            resultado[n++] = doc;
+        }
+        return Arrays.copyOf(resultado, n);
     }
 
+    private static int[] union(int[] a, int[] b) {
+        int[] resultado = new int[a.length + b.length];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                resultado[n++] = a[i++];
+            } else if (a[i] > b[j]) {
+                resultado[n++] = b[j++];
+            } else {
+                resultado[n++] = a[i++];
+                j++;
+            }
+        }
+        while (i < a.length) {
+            resultado[n++] = a[i++];
+        }
+        while (j < b.length) {
+            resultado[n++] = b[j++];
+        }
+        return Arrays.copyOf(resultado, n);
+    }
 
+    private static int[] diferencia(int[] a, int[] b) {
+        int[] resultado = new int[a.length];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length) {
+            if (j >= b.length || a[i] < b[j]) {
+                resultado[n++] = a[i++];
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(resultado, n);
+    }
 
     private static void monstrarResultados(Map<String, Double> rankResultado) {
         if (rankResultado.isEmpty()) {
@@ -181,18 +783,4 @@ public class Buscador {
         }
     }
 
-    // Clase auxiliar para representar un documento y su peso
-    // Clase auxiliar para representar un documento, su TF y el IDF del término
-    private static class DocumentoPeso {
-    String nombreDocumento;
-    double tf_idf; // Frecuencia del término en el documento
-    double idf; // IDF del término
-
-        DocumentoPeso(String nombreDocumento, double tf_idf, double idf) {
-            this.nombreDocumento = nombreDocumento;
-            this.tf_idf = tf_idf;
-            this.idf = idf;
-        }
-    }
-
 }
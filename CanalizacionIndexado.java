@@ -0,0 +1,286 @@
+import utility.FronteraRastreo;
+import utility.MetadatosRastreo;
+import utility.Tupla;
+import utility.preprocesado;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Rastrea el sitio e indexa a la vez, sin pasar los documentos por disco:
+//
+//   descargas (N hilos) -> cola -> preprocesado y stemming (N hilos) -> cola -> indice (1 hilo)
+//
+// Las colas tienen un tamano maximo, asi que si una etapa va mas lenta las anteriores
+// se quedan esperando en vez de llenar la memoria. Los documentos que no han cambiado
+// desde la ultima indexacion se recuperan de utility/frecuencias.dat sin volver a
+// preprocesarlos.
+//
+// Acepta las opciones de CorpusCrawler y de indexacion, y ademas:
+//   -descargas N     hilos que descargan paginas y documentos
+//   -procesadores N  hilos que preprocesan y dividen en terminos
+//   -cola N          documentos que caben en cada cola
+//   -guardar         guarda tambien los documentos descargados en el directorio de salida
+//
+//   java -cp ".;jsoup-1.18.1.jar" CanalizacionIndexado -descargas 8 -procesadores 4 -posiciones
+public class CanalizacionIndexado {
+    private static int descargas = 4;
+    private static int procesadores = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    private static int tamCola = 64;
+    private static boolean guardar = false;
+
+    // Documento que pasa de una etapa a otra. Al principio tiene el contenido
+    // descargado o la linea de frecuencias.dat; despues del preprocesado, sus terminos
+    private static class Documento {
+        final String nombre;
+        byte[] contenido;
+        String cacheado;
+        boolean reutilizado;
+        Map<String, Integer> frecuencias;
+        Map<String, List<Integer>> posiciones;
+
+        Documento(String nombre) {
+            this.nombre = nombre;
+        }
+    }
+
+    // Marca el final de una cola
+    private static final Documento FIN = new Documento(null);
+
+    private static BlockingQueue<Documento> descargados;
+    private static BlockingQueue<Documento> procesados;
+
+    // URL que algun hilo de descarga esta procesando y todavia pueden anadir enlaces
+    private static final Object cerrojo = new Object();
+    private static int enCurso = 0;
+
+    public static void main(String[] args) {
+        CorpusCrawler.opciones(args);
+        indexacion.opciones(args);
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-descargas") && i + 1 < args.length)
+                descargas = Math.max(1, Integer.parseInt(args[++i]));
+            else if (args[i].equals("-procesadores") && i + 1 < args.length)
+                procesadores = Math.max(1, Integer.parseInt(args[++i]));
+            else if (args[i].equals("-cola") && i + 1 < args.length)
+                tamCola = Math.max(1, Integer.parseInt(args[++i]));
+            else if (args[i].equals("-guardar"))
+                guardar = true;
+        }
+        // El indice se construye entero en memoria, asi que no se puede continuar un
+        // rastreo interrumpido: siempre se empieza uno nuevo
+        CorpusCrawler.nuevo = true;
+        // Los cambios que se apunten durante el rastreo ya quedan aplicados en este indice
+        if (indexacion.manifiesto == null)
+            indexacion.manifiesto = new File(CorpusCrawler.stateDirectory, MetadatosRastreo.MANIFIESTO).getPath();
+
+        long inicio = System.currentTimeMillis();
+        try (FronteraRastreo frontera = CorpusCrawler.abrirRastreo()) {
+            if (frontera == null || !indexacion.iniciar())
+                return;
+            descargados = new ArrayBlockingQueue<>(tamCola);
+            procesados = new ArrayBlockingQueue<>(tamCola);
+
+            // El ultimo hilo de cada etapa en terminar avisa a la siguiente, aunque
+            // termine por un error. Un hilo que falla interrumpe al que indexa, que para
+            // a todos: un indice al que le faltan documentos no se publica
+            AtomicInteger descargasVivas = new AtomicInteger(descargas);
+            AtomicInteger procesadoresVivos = new AtomicInteger(procesadores);
+            Thread indexador = Thread.currentThread();
+            List<Thread> hilos = new ArrayList<>();
+            for (int i = 0; i < descargas; i++) {
+                hilos.add(new Thread(() -> {
+                    try {
+                        descargar(frontera);
+                    } catch (RuntimeException e) {
+                        indexador.interrupt();
+                        throw e;
+                    } finally {
+                        if (descargasVivas.decrementAndGet() == 0)
+                            for (int j = 0; j < procesadores; j++)
+                                poner(descargados, FIN);
+                    }
+                }, "descarga-" + i));
+            }
+            for (int i = 0; i < procesadores; i++) {
+                hilos.add(new Thread(() -> {
+                    try {
+                        procesar();
+                    } catch (RuntimeException e) {
+                        indexador.interrupt();
+                        throw e;
+                    } finally {
+                        if (procesadoresVivos.decrementAndGet() == 0)
+                            poner(procesados, FIN);
+                    }
+                }, "preprocesado-" + i));
+            }
+            for (Thread hilo : hilos)
+                hilo.start();
+
+            // El indice no es seguro entre hilos: los postings los acumula solo este
+            int documentos = 0;
+            boolean completo = false;
+            try {
+                Documento documento;
+                while ((documento = procesados.take()) != FIN) {
+                    try {
+                        indexacion.anadir_documento(documento.nombre, documento.frecuencias, documento.posiciones);
+                        if (documento.reutilizado)
+                            indexacion.reutilizados++;
+                        documentos++;
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+                completo = true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                // Si se para antes de tiempo, los hilos que esperan en una cola llena o
+                // vacia no acabarian nunca
+                if (!completo)
+                    for (Thread hilo : hilos)
+                        hilo.interrupt();
+                esperar(hilos);
+            }
+            if (!completo) {
+                System.err.println("La indexacion se ha interrumpido; se conserva el indice anterior.");
+                return;
+            }
+            System.out.println("\nDocumentos rastreados: " + documentos + " en "
+                    + (System.currentTimeMillis() - inicio) + " ms\n");
+
+            CorpusCrawler.cerrarRastreo();
+        } catch (IOException e) {
+            System.err.println("Error al procesar el índice: " + e.getMessage());
+            return;
+        }
+        indexacion.finalizar();
+        System.out.println("Indice generado en " + (System.currentTimeMillis() - inicio) + " ms");
+    }
+
+    // Espera a que terminen los hilos aunque interrumpan al que espera
+    private static void esperar(List<Thread> hilos) {
+        boolean interrumpido = Thread.interrupted();
+        for (Thread hilo : hilos) {
+            while (hilo.isAlive()) {
+                try {
+                    hilo.join();
+                } catch (InterruptedException e) {
+                    interrumpido = true;
+                }
+            }
+        }
+        if (interrumpido)
+            Thread.currentThread().interrupt();
+    }
+
+    // Etapa de descarga. Un hilo termina cuando la frontera esta vacia y ningun otro
+    // hilo puede anadir mas URL, o cuando se le interrumpe
+    private static void descargar(FronteraRastreo frontera) {
+        while (!Thread.currentThread().isInterrupted()) {
+            Tupla<String, Integer> siguiente;
+            synchronized (cerrojo) {
+                try {
+                    while ((siguiente = frontera.siguiente()) == null && enCurso > 0)
+                        cerrojo.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (siguiente == null) {
+                    cerrojo.notifyAll();
+                    return;
+                }
+                enCurso++;
+            }
+            try {
+                String url = siguiente.first;
+                if (CorpusCrawler.seguirEnlaces(url, siguiente.second)) {
+                    for (String enlace : CorpusCrawler.enlaces(url, siguiente.second))
+                        frontera.anadir(enlace, siguiente.second + 1);
+                } else {
+                    Documento documento = descargarDocumento(url);
+                    if (documento != null)
+                        poner(descargados, documento);
+                }
+            } catch (IOException e) {
+                System.err.println("Error al procesar: " + siguiente.first + " - " + e.getMessage());
+            } finally {
+                synchronized (cerrojo) {
+                    enCurso--;
+                    cerrojo.notifyAll();
+                }
+            }
+        }
+    }
+
+    // Descarga un documento del corpus. Si no ha cambiado se reutiliza lo que ya se
+    // tenia (frecuencias.dat o la copia en disco); null si no hay nada que indexar
+    private static Documento descargarDocumento(String url) throws IOException {
+        String relativePath = url.substring(CorpusCrawler.baseUrl.length());
+        // El indexador identifica los documentos por el nombre del fichero
+        Documento documento = new Documento(Paths.get(relativePath).getFileName().toString());
+        String cacheado = indexacion.cacheado(documento.nombre);
+        File copia = new File(CorpusCrawler.outputDirectory, relativePath);
+        Tupla<byte[], Boolean> descarga = CorpusCrawler.downloadFile(url, relativePath,
+                cacheado != null || copia.exists(), guardar);
+        if (descarga == null && !CorpusCrawler.vistoEnRastreo(relativePath)) {
+            // Ya no esta en el sitio: no se indexa y al cerrar el rastreo se apunta como borrado
+            return null;
+        } else if (descarga != null && descarga.second) {
+            documento.contenido = descarga.first;
+        } else if (cacheado != null) {
+            // Sin cambios o error al descargar: se conserva lo que se indexo la ultima vez
+            documento.cacheado = cacheado;
+        } else if (descarga != null && descarga.first != null) {
+            documento.contenido = descarga.first;
+        } else if (copia.exists()) {
+            documento.contenido = Files.readAllBytes(copia.toPath());
+        } else {
+            return null;
+        }
+        return documento;
+    }
+
+    // Etapa de preprocesado y stemming
+    private static void procesar() {
+        try {
+            Documento documento;
+            while ((documento = descargados.take()) != FIN) {
+                documento.frecuencias = new HashMap<>();
+                documento.posiciones = new HashMap<>();
+                if (documento.cacheado != null) {
+                    indexacion.cargar_desde_cache(documento.cacheado, documento.frecuencias, documento.posiciones);
+                    documento.reutilizado = true;
+                } else {
+                    String contenido = preprocesado.procesar(new String(documento.contenido));
+                    indexacion.dividir_en_terminos(contenido, documento.frecuencias, documento.posiciones);
+                }
+                documento.contenido = null;
+                documento.cacheado = null;
+                poner(procesados, documento);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // put que espera si la cola esta llena: asi una etapa lenta frena a las anteriores
+    private static void poner(BlockingQueue<Documento> cola, Documento documento) {
+        try {
+            cola.put(documento);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
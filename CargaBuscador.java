@@ -0,0 +1,342 @@
+import utility.Consulta;
+import utility.Indice;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Prueba de carga del buscador: lanza consultas contra el índice de utility dentro del
+// mismo proceso, por el mismo camino que el modo interactivo (parseo, generación del
+// índice y ranking), y mide rendimiento, latencia, tiempo de GC y memoria reservada.
+//
+// Las consultas se leen de un fichero con el formato de -lote, que se repite en orden,
+// o se generan con el vocabulario del índice: -distintas consultas AND/OR de 1 a 3
+// términos, elegidos con más probabilidad cuanto mayor es su df, y cuya popularidad
+// sigue una distribución de Zipf.
+//
+// Hay dos modos:
+//   - Bucle cerrado (por defecto): -clientes hilos que lanzan la siguiente consulta en
+//     cuanto termina la anterior. Da el rendimiento máximo
+//   - Bucle abierto (-ritmo Q): llegan Q consultas por segundo a intervalos fijos, dé
+//     abasto el buscador o no, y las atienden -clientes hilos. La latencia se cuenta
+//     desde que la consulta tenía que empezar, así que incluye la espera en cola
+// Durante el calentamiento se hace lo mismo pero no se mide nada.
+//
+//   java CargaBuscador [-consultas log.txt] [-clientes N] [-ritmo Q] [-duracion S]
+//        [-calentamiento S] [-k K] [-distintas N] [-zipf S] [-and F] [-semilla X]
+//        [-fueraHeap] [-cacheIntersecciones MB]
+public class CargaBuscador {
+    private static String ficheroConsultas = null;
+    private static int clientes = Runtime.getRuntime().availableProcessors();
+    private static double ritmo = 0;
+    private static int duracion = 30, calentamiento = 10, k = 10;
+    // Consultas sintéticas: cuántas distintas, exponente de Zipf y fracción de AND
+    private static int distintas = 10000;
+    private static double zipf = 1.0, fraccionAnd = 0.5;
+    private static long semilla = 42;
+
+    // Longitud de la secuencia de consultas sintéticas, que se repite
+    private static final int LONGITUD_SECUENCIA = 1 << 18;
+
+    private static String[] consultas;
+    private static int[] secuencia;
+
+    // Lo que ha medido cada hilo. Solo lo escribe su hilo; se lee al final
+    private static class Registro {
+        long[] latencias = new long[1024];
+        int n = 0;
+        long bytes = 0, errores = 0;
+
+        void anotar(long latencia, long asignados) {
+            if (n == latencias.length) {
+                latencias = Arrays.copyOf(latencias, n * 2);
+            }
+            latencias[n++] = latencia;
+            bytes += asignados;
+        }
+    }
+
+    private static final ConcurrentLinkedQueue<Registro> registros = new ConcurrentLinkedQueue<>();
+    private static final ThreadLocal<Registro> registro = ThreadLocal.withInitial(() -> {
+        Registro nuevo = new Registro();
+        registros.add(nuevo);
+        return nuevo;
+    });
+    // Cuándo ha terminado la última consulta medida
+    private static final AtomicLong ultimaTerminada = new AtomicLong();
+    private static com.sun.management.ThreadMXBean memoriaHilos;
+
+    public static void main(String[] args) {
+        for (int i = 0; i + 1 < args.length; i++) {
+            switch (args[i]) {
+                case "-consultas": ficheroConsultas = args[++i]; break;
+                case "-clientes": clientes = Math.max(1, Integer.parseInt(args[++i])); break;
+                case "-ritmo": ritmo = Math.max(0, Double.parseDouble(args[++i])); break;
+                case "-duracion": duracion = Math.max(1, Integer.parseInt(args[++i])); break;
+                case "-calentamiento": calentamiento = Math.max(0, Integer.parseInt(args[++i])); break;
+                case "-k": k = Math.max(1, Integer.parseInt(args[++i])); break;
+                case "-distintas": distintas = Math.max(1, Integer.parseInt(args[++i])); break;
+                case "-zipf": zipf = Math.max(0, Double.parseDouble(args[++i])); break;
+                case "-and": fraccionAnd = Math.min(1, Math.max(0, Double.parseDouble(args[++i]))); break;
+                case "-semilla": semilla = Long.parseLong(args[++i]); break;
+            }
+        }
+        Buscador.opcionesIndice(args);
+        try {
+            Buscador.indiceActual.set(Buscador.cargarIndice());
+            if (ficheroConsultas != null) {
+                List<String[]> log = Buscador.leerConsultas(ficheroConsultas);
+                consultas = new String[log.size()];
+                secuencia = new int[log.size()];
+                for (int i = 0; i < consultas.length; i++) {
+                    consultas[i] = log.get(i)[1];
+                    secuencia[i] = i;
+                }
+            } else {
+                sintetizar(Buscador.indiceActual.get());
+            }
+        } catch (IOException e) {
+            System.err.println("Error al preparar la prueba de carga: " + e.getMessage());
+            return;
+        }
+        if (consultas.length == 0) {
+            System.err.println("No hay consultas que lanzar.");
+            return;
+        }
+        ThreadMXBean hilos = ManagementFactory.getThreadMXBean();
+        if (hilos instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) hilos).isThreadAllocatedMemorySupported()) {
+            memoriaHilos = (com.sun.management.ThreadMXBean) hilos;
+            memoriaHilos.setThreadAllocatedMemoryEnabled(true);
+        }
+
+        System.out.printf(Locale.ROOT, "%s, %d clientes, %d s de calentamiento y %d s medidos, k = %d%n",
+                ritmo > 0 ? String.format(Locale.ROOT, "Bucle abierto a %.1f consultas/s", ritmo) : "Bucle cerrado",
+                clientes, calentamiento, duracion, k);
+        System.out.println(ficheroConsultas != null
+                ? "Consultas del fichero " + ficheroConsultas + ": " + consultas.length
+                : "Consultas sintéticas: " + consultas.length + " distintas, las más frecuentes: "
+                        + consultas[0] + " | " + consultas[Math.min(1, consultas.length - 1)]);
+
+        long inicio = System.nanoTime();
+        long inicioMedida = inicio + TimeUnit.SECONDS.toNanos(calentamiento);
+        long fin = inicioMedida + TimeUnit.SECONDS.toNanos(duracion);
+        long[] gcInicio;
+        try {
+            gcInicio = ritmo > 0 ? bucleAbierto(inicio, inicioMedida, fin) : bucleCerrado(inicioMedida, fin);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        long[] gcFin = gc();
+        informe(Math.max(fin, ultimaTerminada.get()) - inicioMedida, gcFin[0] - gcInicio[0], gcFin[1] - gcInicio[1]);
+    }
+
+    // Devuelve el estado del GC al empezar a medir
+    private static long[] bucleCerrado(long inicioMedida, long fin) throws InterruptedException {
+        AtomicLong siguiente = new AtomicLong();
+        List<Thread> hilos = new ArrayList<>();
+        for (int c = 0; c < clientes; c++) {
+            Thread hilo = new Thread(() -> {
+                long ahora;
+                while ((ahora = System.nanoTime()) < fin) {
+                    ejecutar(consulta(siguiente.getAndIncrement()), ahora, ahora >= inicioMedida);
+                }
+            }, "cliente-" + c);
+            hilos.add(hilo);
+            hilo.start();
+        }
+        esperarHasta(inicioMedida);
+        long[] gcInicio = gc();
+        for (Thread hilo : hilos) {
+            hilo.join();
+        }
+        return gcInicio;
+    }
+
+    // Un solo hilo reparte las llegadas; si el buscador no da abasto se acumulan en
+    // la cola del pool y se nota en la latencia
+    private static long[] bucleAbierto(long inicio, long inicioMedida, long fin) throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(clientes);
+        long[] gcInicio = null;
+        double intervalo = 1e9 / ritmo;
+        for (long i = 0; ; i++) {
+            long previsto = inicio + (long) (i * intervalo);
+            if (previsto >= fin) {
+                break;
+            }
+            esperarHasta(previsto);
+            boolean medir = previsto >= inicioMedida;
+            if (medir && gcInicio == null) {
+                gcInicio = gc();
+            }
+            String consulta = consulta(i);
+            pool.execute(() -> ejecutar(consulta, previsto, medir));
+        }
+        pool.shutdown();
+        if (!pool.awaitTermination(1, TimeUnit.MINUTES)) {
+            System.err.println("El buscador no ha podido con el ritmo: se descartan las consultas pendientes.");
+            pool.shutdownNow();
+        }
+        return gcInicio != null ? gcInicio : gc();
+    }
+
+    private static void ejecutar(String consulta, long inicio, boolean medir) {
+        Registro r = registro.get();
+        long antes = asignados();
+        try {
+            Buscador.rankDocumentos(consulta, k);
+        } catch (RuntimeException e) {
+            if (medir) {
+                r.errores++;
+            }
+            return;
+        }
+        long terminada = System.nanoTime();
+        if (medir) {
+            r.anotar(terminada - inicio, asignados() - antes);
+            ultimaTerminada.accumulateAndGet(terminada, Math::max);
+        }
+    }
+
+    private static String consulta(long i) {
+        return consultas[secuencia[(int) (i % secuencia.length)]];
+    }
+
+    // Bytes reservados hasta ahora por el hilo actual, o 0 si la JVM no lo cuenta
+    private static long asignados() {
+        return memoriaHilos != null ? memoriaHilos.getCurrentThreadAllocatedBytes() : 0;
+    }
+
+    private static void esperarHasta(long instante) {
+        long falta;
+        while ((falta = instante - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(falta);
+        }
+    }
+
+    // Número de recolecciones y milisegundos de GC acumulados por todos los colectores
+    private static long[] gc() {
+        long[] total = new long[2];
+        for (GarbageCollectorMXBean colector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total[0] += Math.max(0, colector.getCollectionCount());
+            total[1] += Math.max(0, colector.getCollectionTime());
+        }
+        return total;
+    }
+
+    // Genera las consultas distintas a partir de los términos del índice ordenados por
+    // df, y la secuencia en que se lanzan según su popularidad
+    private static void sintetizar(Indice indice) {
+        List<int[]> vocabulario = new ArrayList<>();
+        List<String> nombres = new ArrayList<>();
+        indice.diccionario.recorrerPrefijo("", (termino, id) -> {
+            // Solo los términos que la consulta deja igual al parsearla
+            if (indice.df(id) > 1) {
+                Consulta parseada = Consulta.parsear(termino);
+                if (parseada instanceof Consulta.Termino && ((Consulta.Termino) parseada).termino.equals(termino)) {
+                    vocabulario.add(new int[]{id, nombres.size()});
+                    nombres.add(termino);
+                }
+            }
+        });
+        vocabulario.sort((a, b) -> Integer.compare(indice.df(b[0]), indice.df(a[0])));
+        if (vocabulario.isEmpty()) {
+            consultas = new String[0];
+            return;
+        }
+
+        Random random = new Random(semilla);
+        double[] porDf = zipf(vocabulario.size(), zipf);
+        Set<String> generadas = new LinkedHashSet<>();
+        for (int intento = 0; generadas.size() < distintas && intento < distintas * 10; intento++) {
+            int numTerminos = 1 + random.nextInt(3);
+            String operador = random.nextDouble() < fraccionAnd ? " AND " : " OR ";
+            StringBuilder consulta = new StringBuilder();
+            for (int t = 0; t < numTerminos; t++) {
+                if (t > 0) {
+                    consulta.append(operador);
+                }
+                consulta.append(nombres.get(vocabulario.get(muestra(porDf, random))[1]));
+            }
+            generadas.add(consulta.toString());
+        }
+        // La primera consulta generada es la más popular
+        consultas = generadas.toArray(new String[0]);
+        double[] porPopularidad = zipf(consultas.length, zipf);
+        secuencia = new int[LONGITUD_SECUENCIA];
+        for (int i = 0; i < secuencia.length; i++) {
+            secuencia[i] = muestra(porPopularidad, random);
+        }
+    }
+
+    // Distribución acumulada de Zipf para n rangos: P(i) proporcional a 1 / (i + 1)^s
+    private static double[] zipf(int n, double s) {
+        double[] acumulada = new double[n];
+        double suma = 0;
+        for (int i = 0; i < n; i++) {
+            suma += 1 / Math.pow(i + 1, s);
+            acumulada[i] = suma;
+        }
+        for (int i = 0; i < n; i++) {
+            acumulada[i] /= suma;
+        }
+        return acumulada;
+    }
+
+    private static int muestra(double[] acumulada, Random random) {
+        int pos = Arrays.binarySearch(acumulada, random.nextDouble());
+        return Math.min(pos >= 0 ? pos : -pos - 1, acumulada.length - 1);
+    }
+
+    private static void informe(long transcurrido, long recolecciones, long msGc) {
+        int total = 0;
+        long bytes = 0, errores = 0;
+        for (Registro r : registros) {
+            total += r.n;
+            bytes += r.bytes;
+            errores += r.errores;
+        }
+        long[] latencias = new long[total];
+        int n = 0;
+        for (Registro r : registros) {
+            System.arraycopy(r.latencias, 0, latencias, n, r.n);
+            n += r.n;
+        }
+        Arrays.sort(latencias);
+        double segundos = transcurrido / 1e9;
+
+        System.out.println();
+        System.out.printf(Locale.ROOT, "Consultas medidas: %d en %.1f s, %.1f consultas/s%s%n", total, segundos,
+                total / segundos, errores > 0 ? " (" + errores + " con error)" : "");
+        if (total > 0) {
+            long suma = 0;
+            for (long latencia : latencias) {
+                suma += latencia;
+            }
+            System.out.printf(Locale.ROOT, "Latencia (ms): media %.3f, p50 %.3f, p99 %.3f, p999 %.3f, max %.3f%n",
+                    suma / 1e6 / total, percentil(latencias, 0.5), percentil(latencias, 0.99),
+                    percentil(latencias, 0.999), latencias[total - 1] / 1e6);
+        }
+        System.out.printf(Locale.ROOT, "GC: %d recolecciones, %d ms (%.1f%% del tiempo)%n", recolecciones, msGc,
+                100.0 * msGc / (transcurrido / 1e6));
+        if (memoriaHilos != null && total > 0) {
+            System.out.printf(Locale.ROOT, "Memoria reservada por las consultas: %.1f MB/s, %.1f KB por consulta%n",
+                    bytes / 1048576.0 / segundos, bytes / 1024.0 / total);
+        } else {
+            System.out.println("Memoria reservada por las consultas: no disponible en esta JVM");
+        }
+    }
+
+    private static double percentil(long[] ordenadas, double p) {
+        return ordenadas[Math.min(ordenadas.length - 1, (int) (ordenadas.length * p))] / 1e6;
+    }
+}
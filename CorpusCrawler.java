@@ -2,55 +2,280 @@ import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
 import org.jsoup.select.Elements;
+import utility.FronteraRastreo;
+import utility.MetadatosRastreo;
+import utility.Tupla;
 
 import java.io.*;
+import java.net.HttpURLConnection;
 import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 
 public class CorpusCrawler {
     private static final String BASE_URL = "https://raw.githubusercontent.com/PdedP/RECINF-Project/refs/heads/main/";
     private static final String START_URL = BASE_URL + "index.html"; // Página inicial
     private static final String OUTPUT_DIRECTORY = ".";
+    // Directorio donde se guarda el estado del rastreo para poder reanudarlo
+    private static final String STATE_DIRECTORY = "rastreo";
+
+    // Opciones del rastreo. Se pueden cambiar por línea de comandos, por ejemplo para
+    // rastrear un servidor HTTP local de pruebas:
+    //   java CorpusCrawler -inicio http://localhost:8000/index.html -base http://localhost:8000/
+    //                      -salida . -estado rastreo -profundidad 1 [-nuevo]
+    static String baseUrl = BASE_URL;
+    static String startUrl = START_URL;
+    static String outputDirectory = OUTPUT_DIRECTORY;
+    static String stateDirectory = STATE_DIRECTORY;
+    // Profundidad máxima: la página inicial es 0 y sus enlaces 1
+    static int maxDepth = 1;
+    // Olvidar la frontera del rastreo anterior y empezar otro
+    static boolean nuevo = false;
+    // ETag, Last-Modified y hash de cada documento de rastreos anteriores
+    private static MetadatosRastreo metadatos;
+    // Identificador del rastreo en curso, para saber qué documentos ya no existen
+    private static String crawlId;
+    // Cada cuántos documentos se guardan los metadatos
+    private static final int GUARDAR_CADA = 100;
+
+    // Las opciones que no conoce se ignoran, para poder compartirlas con el indexador
+    static void opciones(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-inicio": startUrl = args[++i]; break;
+                case "-base": baseUrl = args[++i]; break;
+                case "-salida": outputDirectory = args[++i]; break;
+                case "-estado": stateDirectory = args[++i]; break;
+                case "-profundidad": maxDepth = Integer.parseInt(args[++i]); break;
+                case "-nuevo": nuevo = true; break;
+            }
+        }
+    }
 
     public static void main(String[] args) {
+        opciones(args);
+
         try {
-            File directory = new File(OUTPUT_DIRECTORY);
-            if (!directory.exists()) {
-                directory.mkdir();
+            try (FronteraRastreo frontera = abrirRastreo()) {
+                if (frontera == null) {
+                    System.out.println("El rastreo ya se completó. Usa -nuevo para empezar otro.");
+                    return;
+                }
+
+                // Las URL solo se marcan como hechas después de guardar sus metadatos; si
+                // hay una caida antes, al reanudar se vuelven a pedir (con petición condicional)
+                Tupla<String, Integer> siguiente;
+                List<String> sinGuardar = new ArrayList<>();
+                while ((siguiente = frontera.siguiente()) != null) {
+                    procesar(frontera, siguiente.first, siguiente.second);
+                    sinGuardar.add(siguiente.first);
+                    if (sinGuardar.size() == GUARDAR_CADA) {
+                        guardarProgreso(frontera, sinGuardar);
+                    }
+                }
+                guardarProgreso(frontera, sinGuardar);
+                cerrarRastreo();
             }
 
-            // Descargar y analizar la página inicial
-            System.out.println("Descargando índice...");
-            Document document = Jsoup.connect(START_URL).get();
-            Elements links = document.select("a[href]");
+            System.out.println("Descarga completada. Los archivos están en el directorio: " + outputDirectory);
+        } catch (IOException e) {
+            System.err.println("Error al procesar el índice: " + e.getMessage());
+        }
+    }
+
+    // Abre la frontera y los metadatos. Si quedaron URL pendientes de un rastreo
+    // interrumpido se continúa con ellas; si no, se empieza por la página inicial.
+    // Devuelve null si el rastreo anterior ya se completó
+    static FronteraRastreo abrirRastreo() throws IOException {
+        File directory = new File(outputDirectory);
+        if (!directory.exists()) {
+            directory.mkdir();
+        }
+        // Con -nuevo se olvida la frontera del rastreo anterior y se empieza otro. Los
+        // metadatos se conservan para que solo se descargue lo que ha cambiado
+        if (nuevo) {
+            borrarDirectorio(new File(stateDirectory, "vistas"));
+            new File(stateDirectory, "frontera.log").delete();
+            new File(stateDirectory, "rastreo.id").delete();
+        }
 
-            for (Element link : links) {
-                String relativePath = link.attr("href");
-                String fileUrl = BASE_URL + relativePath;
-                downloadFile(fileUrl, relativePath);
+        FronteraRastreo frontera = new FronteraRastreo(stateDirectory, 100000);
+        metadatos = new MetadatosRastreo(stateDirectory);
+        File ficheroId = new File(stateDirectory, "rastreo.id");
+        if (frontera.numPendientes() > 0 && ficheroId.exists()) {
+            System.out.println("Reanudando rastreo con " + frontera.numPendientes() + " URL pendientes...");
+            crawlId = Files.readString(ficheroId.toPath()).trim();
+        } else {
+            crawlId = String.valueOf(System.currentTimeMillis());
+            Files.writeString(ficheroId.toPath(), crawlId);
+            if (!frontera.anadir(startUrl, 0)) {
+                frontera.close();
+                return null;
             }
+        }
+        return frontera;
+    }
 
-            System.out.println("Descarga completada. Los archivos están en el directorio: " + OUTPUT_DIRECTORY);
+    // Al terminar el rastreo, los documentos que no se han encontrado se borran
+    static void cerrarRastreo() throws IOException {
+        for (String relativePath : metadatos.cerrarRastreo(crawlId)) {
+            new File(outputDirectory, relativePath).delete();
+            System.out.println("Archivo borrado: " + relativePath);
+        }
+        metadatos.guardar();
+    }
+
+    // Las páginas HTML se analizan para seguir sus enlaces; el resto de URL son
+    // documentos del corpus y se guardan en disco. Una página a la profundidad máxima
+    // ya no se analiza: se guarda como un documento más, como se hacía antes de
+    // seguir enlaces
+    private static void procesar(FronteraRastreo frontera, String url, int depth) throws IOException {
+        if (!seguirEnlaces(url, depth)) {
+            String relativePath = url.substring(baseUrl.length());
+            downloadFile(url, relativePath, new File(outputDirectory, relativePath).exists(), true);
+            return;
+        }
+        for (String enlace : enlaces(url, depth)) {
+            frontera.anadir(enlace, depth + 1);
+        }
+    }
+
+    // Enlaces de una página que están dentro del sitio que se está rastreando. Si la
+    // página ya está a la profundidad máxima no se sigue ninguno, ni se descarga
+    static List<String> enlaces(String url, int depth) {
+        List<String> enlaces = new ArrayList<>();
+        if (depth >= maxDepth) {
+            return enlaces;
+        }
+        System.out.println("Descargando índice: " + url);
+        Document document;
+        try (InputStream in = new URL(url).openStream()) {
+            document = Jsoup.parse(new String(in.readAllBytes(), StandardCharsets.UTF_8), url);
         } catch (IOException e) {
-            System.err.println("Error al procesar el índice: " + e.getMessage());
+            System.err.println("Error al descargar la página: " + url + " - " + e.getMessage());
+            return enlaces;
+        }
+        Elements links = document.select("a[href]");
+        for (Element link : links) {
+            String fileUrl = link.absUrl("href");
+            // Quito el fragmento y no salgo del sitio que se está rastreando
+            int fragmento = fileUrl.indexOf('#');
+            if (fragmento >= 0) {
+                fileUrl = fileUrl.substring(0, fragmento);
+            }
+            if (fileUrl.startsWith(baseUrl) && fileUrl.length() > baseUrl.length()) {
+                enlaces.add(fileUrl);
+            }
+        }
+        return enlaces;
+    }
+
+    private static void guardarProgreso(FronteraRastreo frontera, List<String> sinGuardar) throws IOException {
+        metadatos.guardar();
+        for (String url : sinGuardar) {
+            frontera.marcarHecha(url);
+        }
+        sinGuardar.clear();
+    }
+
+    // Si hay que descargar la URL para seguir sus enlaces en vez de guardarla como documento
+    static boolean seguirEnlaces(String url, int depth) {
+        return esPagina(url) && depth < maxDepth;
+    }
+
+    private static boolean esPagina(String url) {
+        String path = url.toLowerCase();
+        return path.endsWith(".html") || path.endsWith(".htm") || path.endsWith("/") || url.equals(startUrl);
+    }
+
+    private static void borrarDirectorio(File directorio) {
+        File[] contenido = directorio.listFiles();
+        if (contenido != null) {
+            for (File fichero : contenido) {
+                borrarDirectorio(fichero);
+            }
         }
+        directorio.delete();
     }
 
-    private static void downloadFile(String fileUrl, String relativePath) {
-        try (InputStream in = new URL(fileUrl).openStream()) {
-            // Crear subdirectorios si es necesario
-            File outputFile = new File(OUTPUT_DIRECTORY, relativePath);
-            outputFile.getParentFile().mkdirs();
+    // Errores HTTP que no dicen que el documento ya no exista
+    private static boolean esTransitorio(int codigo) {
+        return codigo >= 500 || codigo == HttpURLConnection.HTTP_CLIENT_TIMEOUT || codigo == 429;
+    }
 
-            try (OutputStream out = new FileOutputStream(outputFile)) {
-                byte[] buffer = new byte[1024];
-                int bytesRead;
-                while ((bytesRead = in.read(buffer)) != -1) {
-                    out.write(buffer, 0, bytesRead);
+    // Si el documento se ha encontrado en este rastreo: descargado, sin cambios o con
+    // un fallo transitorio. Uno que el servidor da por borrado no
+    static boolean vistoEnRastreo(String relativePath) {
+        MetadatosRastreo.Entrada entrada = metadatos.get(relativePath);
+        return entrada != null && entrada.rastreo.equals(crawlId);
+    }
+
+    // Descarga un documento con una petición condicional (If-None-Match /
+    // If-Modified-Since). Si el servidor responde 304, o el contenido tiene el mismo
+    // hash que la última vez, no se vuelve a escribir. hayCopia indica si se conserva
+    // el documento anterior (en disco o ya procesado); sin copia no tiene sentido
+    // pedir solo los cambios. Sin guardarEnDisco solo se escribe si ya había copia.
+    // Devuelve el contenido descargado (null si el servidor respondió 304) y si es
+    // nuevo o ha cambiado, o null si la descarga ha fallado o el documento ya no existe
+    static Tupla<byte[], Boolean> downloadFile(String fileUrl, String relativePath, boolean hayCopia,
+            boolean guardarEnDisco) {
+        File outputFile = new File(outputDirectory, relativePath);
+        MetadatosRastreo.Entrada anterior = metadatos.get(relativePath);
+        try {
+            URLConnection connection = new URL(fileUrl).openConnection();
+            if (anterior != null && hayCopia) {
+                if (!anterior.etag.isEmpty()) {
+                    connection.setRequestProperty("If-None-Match", anterior.etag);
+                }
+                if (!anterior.ultimaModificacion.isEmpty()) {
+                    connection.setRequestProperty("If-Modified-Since", anterior.ultimaModificacion);
+                }
+            }
+            int codigo = connection instanceof HttpURLConnection
+                    ? ((HttpURLConnection) connection).getResponseCode() : HttpURLConnection.HTTP_OK;
+            if (codigo == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                metadatos.visto(relativePath, crawlId);
+                System.out.println("Archivo sin cambios: " + relativePath);
+                return new Tupla<>(null, false);
+            }
+            if (codigo >= 400 && !esTransitorio(codigo)) {
+                // No se marca como visto: al cerrar el rastreo se apunta como borrado
+                System.err.println("El archivo ya no está disponible (" + codigo + "): " + fileUrl);
+                return null;
+            }
+
+            byte[] contenido;
+            try (InputStream in = connection.getInputStream()) {
+                contenido = in.readAllBytes();
+            }
+            String hash = MetadatosRastreo.sha256(contenido);
+            String etag = connection.getHeaderField("ETag");
+            String ultimaModificacion = connection.getHeaderField("Last-Modified");
+            boolean cambiado = anterior == null || !anterior.hash.equals(hash) || !hayCopia;
+            if (cambiado) {
+                // Una copia anterior se actualiza aunque no se pida guardar: si no, los
+                // metadatos nuevos harían creer al siguiente rastreo que está al día
+                if (guardarEnDisco || outputFile.exists()) {
+                    // Crear subdirectorios si es necesario
+                    outputFile.getParentFile().mkdirs();
+                    Files.write(Paths.get(outputFile.getPath()), contenido);
                 }
                 System.out.println("Archivo descargado: " + relativePath);
+            } else {
+                System.out.println("Archivo sin cambios: " + relativePath);
             }
+            metadatos.actualizar(relativePath, etag, ultimaModificacion, hash, crawlId);
+            return new Tupla<>(contenido, cambiado);
         } catch (IOException e) {
+            // Un fallo transitorio (conexión, tiempo de espera, 5xx): se conserva la
+            // copia anterior
+            metadatos.visto(relativePath, crawlId);
             System.err.println("Error al descargar el archivo: " + fileUrl + " - " + e.getMessage());
+            return null;
         }
     }
 }
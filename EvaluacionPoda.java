@@ -0,0 +1,197 @@
+import utility.Consulta;
+import utility.Indice;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+// Compara un índice podado con el índice completo usando el mismo fichero de consultas
+// que el modo por lotes del buscador: tamaño de cada índice, latencia de las consultas
+// y cuántos de los k primeros resultados del índice completo siguen saliendo con la poda.
+//
+// Para tener los dos índices se indexa sin poda, se copia la carpeta utility y se
+// vuelve a indexar con -podarTermino y/o -podarDocumento:
+//
+//   java EvaluacionPoda utility_completo utility consultas.txt [-k 10] [-repeticiones 5]
+public class EvaluacionPoda {
+    // Ficheros que ocupa un índice sin generaciones, que comparte la carpeta con otros
+    // ficheros del indexador. Con generaciones se cuenta todo lo que hay en la carpeta
+    // de la generación
+    private static final String[] FICHEROS = {"indice_invertido.dat", "diccionario.dat", "longitud.dat",
+            "posiciones.dat", "autocompletado.dat", "duplicados.dat"};
+
+    public static void main(String[] args) {
+        if (args.length < 3) {
+            System.err.println("Uso: java EvaluacionPoda <índice completo> <índice podado> <consultas> [-k K] [-repeticiones R]");
+            return;
+        }
+        int k = 10, repeticiones = 5;
+        for (int i = 3; i + 1 < args.length; i++) {
+            switch (args[i]) {
+                case "-k": k = Math.max(1, Integer.parseInt(args[++i])); break;
+                case "-repeticiones": repeticiones = Math.max(1, Integer.parseInt(args[++i])); break;
+            }
+        }
+
+        List<Consulta> consultas = new ArrayList<>();
+        Indice completo, podado;
+        try {
+            for (String[] consulta : Buscador.leerConsultas(args[2])) {
+                Consulta parseada = Consulta.parsear(consulta[1]);
+                if (parseada != null) {
+                    consultas.add(parseada);
+                }
+            }
+            completo = Indice.cargar(args[0]);
+        } catch (IOException e) {
+            System.err.println("Error al cargar el índice completo: " + e.getMessage());
+            return;
+        }
+        try {
+            podado = Indice.cargar(args[1]);
+        } catch (IOException e) {
+            System.err.println("Error al cargar el índice podado: " + e.getMessage());
+            completo.liberar();
+            return;
+        }
+
+        try {
+            System.out.println("Consultas: " + consultas.size() + ", k = " + k);
+            System.out.println();
+            System.out.println("Tamaño");
+            long postingsCompleto = mostrarTamano("  completo", args[0], completo);
+            long postingsPodado = mostrarTamano("  podado  ", args[1], podado);
+            if (postingsCompleto > 0) {
+                System.out.printf(Locale.ROOT, "  postings podados: %.1f%%%n",
+                        100.0 * (postingsCompleto - postingsPodado) / postingsCompleto);
+            }
+
+            // La primera pasada calienta el JIT y sus resultados son los que se comparan
+            List<Map<String, Double>> resultadosCompleto = ejecutar(completo, consultas, k);
+            List<Map<String, Double>> resultadosPodado = ejecutar(podado, consultas, k);
+            // Las pasadas medidas se alternan para que los dos índices se midan en las mismas condiciones
+            long[] tiemposCompleto = new long[consultas.size() * repeticiones];
+            long[] tiemposPodado = new long[consultas.size() * repeticiones];
+            for (int r = 0; r < repeticiones; r++) {
+                medir(completo, consultas, k, tiemposCompleto, r * consultas.size());
+                medir(podado, consultas, k, tiemposPodado, r * consultas.size());
+            }
+            System.out.println();
+            System.out.println("Latencia (ms)");
+            mostrarLatencia("  completo", tiemposCompleto);
+            mostrarLatencia("  podado  ", tiemposPodado);
+
+            mostrarSolapamiento(resultadosCompleto, resultadosPodado, k);
+        } finally {
+            completo.liberar();
+            podado.liberar();
+        }
+    }
+
+    // Muestra lo que ocupa el índice y devuelve su número de postings
+    private static long mostrarTamano(String nombre, String directorio, Indice indice) {
+        long postings = 0;
+        for (int id = 0; id < indice.numTerminos(); id++) {
+            postings += indice.df(id);
+        }
+        String datos = Indice.directorioDatos(directorio, indice.generacion);
+        List<Path> ficheros = new ArrayList<>();
+        if (datos.equals(directorio)) {
+            for (String fichero : FICHEROS) {
+                ficheros.add(Paths.get(datos, fichero));
+            }
+        } else {
+            try (DirectoryStream<Path> contenido = Files.newDirectoryStream(Paths.get(datos))) {
+                contenido.forEach(ficheros::add);
+            } catch (IOException e) {
+                System.err.println("No se puede listar " + datos + ": " + e.getMessage());
+            }
+        }
+        long disco = 0;
+        for (Path ruta : ficheros) {
+            try {
+                if (Files.isRegularFile(ruta)) {
+                    disco += Files.size(ruta);
+                }
+            } catch (IOException e) {
+                System.err.println("No se puede leer el tamaño de " + ruta + ": " + e.getMessage());
+            }
+        }
+        System.out.printf(Locale.ROOT, "%s: %d postings, %.1f MB en disco, %.1f MB de postings en memoria%n",
+                nombre, postings, disco / 1048576.0, indice.postings.bytes() / 1048576.0);
+        return postings;
+    }
+
+    private static List<Map<String, Double>> ejecutar(Indice indice, List<Consulta> consultas, int k) {
+        List<Map<String, Double>> resultados = new ArrayList<>();
+        for (Consulta consulta : consultas) {
+            resultados.add(Buscador.rankDocumentos(indice, consulta, k));
+        }
+        return resultados;
+    }
+
+    // Tiempo de cada consulta, a partir de la posición desde del array
+    private static void medir(Indice indice, List<Consulta> consultas, int k, long[] tiempos, int desde) {
+        for (int q = 0; q < consultas.size(); q++) {
+            long t = System.nanoTime();
+            Buscador.rankDocumentos(indice, consultas.get(q), k);
+            tiempos[desde + q] = System.nanoTime() - t;
+        }
+    }
+
+    private static void mostrarLatencia(String nombre, long[] tiempos) {
+        if (tiempos.length == 0) {
+            return;
+        }
+        long[] ordenados = tiempos.clone();
+        Arrays.sort(ordenados);
+        long total = 0;
+        for (long t : ordenados) {
+            total += t;
+        }
+        System.out.printf(Locale.ROOT, "%s: media %.3f, p50 %.3f, p99 %.3f, max %.3f%n", nombre,
+                total / 1e6 / ordenados.length,
+                ordenados[ordenados.length / 2] / 1e6,
+                ordenados[Math.min(ordenados.length - 1, (int) (ordenados.length * 0.99))] / 1e6,
+                ordenados[ordenados.length - 1] / 1e6);
+    }
+
+    // Solapamiento de una consulta: fracción de los k primeros del índice completo que
+    // también salen entre los k primeros del podado. Las consultas sin resultados en el
+    // índice completo no cuentan
+    private static void mostrarSolapamiento(List<Map<String, Double>> completos, List<Map<String, Double>> podados,
+            int k) {
+        double suma = 0, peor = 1;
+        int evaluadas = 0, identicas = 0, mismoPrimero = 0;
+        for (int q = 0; q < completos.size(); q++) {
+            List<String> completo = new ArrayList<>(completos.get(q).keySet());
+            List<String> podado = new ArrayList<>(podados.get(q).keySet());
+            if (completo.isEmpty()) {
+                continue;
+            }
+            evaluadas++;
+            Set<String> comunes = new HashSet<>(completo);
+            comunes.retainAll(podado);
+            double solapamiento = (double) comunes.size() / completo.size();
+            suma += solapamiento;
+            peor = Math.min(peor, solapamiento);
+            if (completo.equals(podado)) {
+                identicas++;
+            }
+            if (!podado.isEmpty() && completo.get(0).equals(podado.get(0))) {
+                mismoPrimero++;
+            }
+        }
+        System.out.println();
+        System.out.println("Top-" + k + " frente al índice completo (" + evaluadas + " consultas con resultados)");
+        if (evaluadas == 0) {
+            return;
+        }
+        System.out.printf(Locale.ROOT, "  solapamiento medio: %.3f, mínimo: %.3f%n", suma / evaluadas, peor);
+        System.out.printf(Locale.ROOT, "  mismo top-%d y en el mismo orden: %.1f%%%n", k, 100.0 * identicas / evaluadas);
+        System.out.printf(Locale.ROOT, "  mismo primer resultado: %.1f%%%n", 100.0 * mismoPrimero / evaluadas);
+    }
+}
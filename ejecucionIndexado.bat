@@ -14,7 +14,7 @@ if %errorlevel% neq 0 (
 )
 
 REM Compilar y ejecutar el indexador
-javac -cp . .\indexacion.java .\utility\Tupla.java .\utility\Stemmer.java .\utility\preprocesado.java
+javac -cp . .\indexacion.java .\utility\Tupla.java .\utility\Stemmer.java .\utility\preprocesado.java .\utility\Diccionario.java .\utility\ListaPostings.java .\utility\Duplicados.java .\utility\Posiciones.java .\utility\FiltroStopwords.java .\utility\Autocompletado.java
 if %errorlevel% neq 0 (
     echo Error al compilar los archivos del indexador
     pause
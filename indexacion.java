@@ -1,13 +1,32 @@
 import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
+import java.io.OutputStreamWriter;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import utility.Autocompletado;
+import utility.Diccionario;
+import utility.Duplicados;
+import utility.ListaPostings;
+import utility.Posiciones;
 import utility.Tupla;
 import utility.preprocesado;
 import utility.Stemmer;
@@ -20,169 +39,742 @@ public class indexacion {
     // Map auxiliar donde almaceno los terminos y su frecuencia en un fichero para
     // posteriormente calcular el tf
     private static Map<String, Integer> terminos_map = new HashMap<>();
-    // Aqui almaceno el tf-ifd
-    private static Map<String, Tupla<Double, Map<String, Double>>> indice_invertido = new HashMap<String, Tupla<Double, Map<String, Double>>>();
-    // Aqui almaceno la longitud de cada documento
-    private static Map<String, Double> longitud = new HashMap<>();
+    // Posiciones de cada termino en el fichero actual
+    private static Map<String, List<Integer>> posiciones_map = new HashMap<>();
+    // Si esta activado se guardan las posiciones de los terminos en utility/posiciones.dat
+    private static boolean indice_posicional = false;
+    // Posiciones comprimidas de cada termino, la posicion en la lista es el termID
+    private static List<Posiciones.Lista> posiciones = new ArrayList<>();
+    // Diccionario global: a cada termino le asigno un termID denso segun aparece
+    private static Map<String, Integer> diccionario = new HashMap<>();
+    // Termino de cada termID
+    private static List<String> terminos = new ArrayList<>();
+    // Nombre de cada documento, la posicion en la lista es su docID
+    private static List<String> documentos = new ArrayList<>();
+    // Aqui almaceno el tf-ifd, la posicion en la lista es el termID
+    private static List<Tupla<Double, ListaPostings>> indice_invertido = new ArrayList<>();
+    // Aqui almaceno la longitud de cada documento, indexada por docID
+    private static double[] longitud = new double[0];
+    // Numero de hilos para el calculo del idf y la longitud
+    private static int hilos = Runtime.getRuntime().availableProcessors();
+    // Deteccion de casi duplicados (null si no esta activada)
+    private static Duplicados duplicados = null;
+    // Veces que aparece cada palabra antes del stemming, para sugerir palabras reales en
+    // el autocompletado (null si no esta activado). Se rellena desde varios hilos en
+    // CanalizacionIndexado
+    private static Map<String, Integer> superficies = null;
+    // Si esta activado solo se indexa el representante de cada grupo de duplicados
+    private static boolean deduplicar = false;
+    // Poda estatica (ver podar_indice). Con los valores por defecto no se poda nada
+    private static double poda_termino = 0;
+    private static int poda_k = 10;
+    private static double poda_documento = 1;
+    // Manifiesto de cambios del rastreador (null para procesar todo el corpus)
+    static String manifiesto = null;
+    // Punto de control de una indexacion en curso: hasta donde es valido
+    // frecuencias.dat.tmp
+    private static final String PUNTO_CONTROL = "utility/punto_control.dat";
+    // Lo vigila el buscador para cargar las generaciones nuevas del indice. Contiene el
+    // nombre del directorio de GENERACIONES donde estan los ficheros de la generacion
+    private static final String GENERACION = "utility/indice.gen";
+    private static final String GENERACIONES = "utility/generaciones";
+    // frecuencias.dat de la indexacion anterior y documentos del manifiesto
+    private static Map<String, String> cache = new HashMap<>();
+    private static Set<String> cambiados = new HashSet<>();
+    // frecuencias.dat que se esta escribiendo y documentos que se han podido reutilizar
+    private static BufferedWriter nueva_cache;
+    private static FileOutputStream salida_cache;
+    static int reutilizados = 0;
+    // Cada cuantos documentos se guarda un punto de control (0 = nunca)
+    private static int cada_punto_control = 1000;
+    private static int sin_punto_control = 0;
+    // Documentos ya anadidos en una ejecucion anterior que se interrumpio, con su linea
+    // de frecuencias.dat.tmp. Es concurrente porque los hilos de descarga la leen en
+    // cacheado() mientras el hilo que indexa va quitando los que anade
+    private static Map<String, String> hechos = new ConcurrentHashMap<>();
+    // Directorio donde los guardar_* escriben la generacion nueva. Nadie lo lee hasta
+    // que indice.gen apunta a el
+    private static Path nueva_generacion;
+    private static boolean error_guardando = false;
 
-    // Dividir texto en terminos y contar frecuencia en cada texto
-    private static void dividir_en_terminos(String texto) {
+    // Dividir texto en terminos y contar frecuencia en cada texto. No usa el estado del
+    // indice (superficies es concurrente), asi que se puede llamar desde varios hilos
+    // con maps distintos
+    static void dividir_en_terminos(String texto, Map<String, Integer> frecuencias,
+            Map<String, List<Integer>> posiciones_doc) {
         // Divido el texto en palbras
         String[] terminos = texto.split("\\s+");
         // Sin esto se crea siempre al principio un registro vacio
         ArrayList<String> listaTerminos = new ArrayList<>(Arrays.asList(terminos));
         listaTerminos.removeIf(String::isEmpty);
         terminos = listaTerminos.toArray(new String[0]);
+        Stemmer stemmer = new Stemmer();
         // Recorro todos los terminos
-        for (String termino : terminos) {
+        for (int posicion = 0; posicion < terminos.length; posicion++) {
+            String termino = terminos[posicion];
+            if (superficies != null)
+                superficies.merge(termino, 1, Integer::sum);
             // Aplico el algoritmo de stemming
-            Stemmer stemmer = new Stemmer();
             char[] termArray = termino.toCharArray();
             stemmer.add(termArray, termArray.length);
             stemmer.stem();
             termino = stemmer.toString();
             // Si no esta en el map
-            if (terminos_map.get(termino) == null)
+            if (frecuencias.get(termino) == null)
                 // Inicializo el valor a 1
-                terminos_map.put(termino, 1);
+                frecuencias.put(termino, 1);
             // Si esta
             else {
                 // Sumo 1 al valor
-                terminos_map.put(termino, terminos_map.get(termino) + 1);
+                frecuencias.put(termino, frecuencias.get(termino) + 1);
+            }
+            posiciones_doc.computeIfAbsent(termino, k -> new ArrayList<>()).add(posicion);
+        }
+    }
+
+    // Rellena las frecuencias y posiciones con la linea guardada de un documento en
+    // frecuencias.dat, sin tener que leerlo ni preprocesarlo otra vez
+    static void cargar_desde_cache(String linea, Map<String, Integer> frecuencias,
+            Map<String, List<Integer>> posiciones_doc) {
+        for (String entrada : linea.split(";")) {
+            int separador = entrada.lastIndexOf(':');
+            if (separador <= 0)
+                continue;
+            String termino = entrada.substring(0, separador);
+            List<Integer> lista = new ArrayList<>();
+            for (String posicion : entrada.substring(separador + 1).split(","))
+                lista.add(Integer.parseInt(posicion));
+            frecuencias.put(termino, lista.size());
+            posiciones_doc.put(termino, lista);
+        }
+    }
+
+    // Guarda los terminos del documento actual con sus posiciones:
+    //     documento;termino:p1,p2,...;termino:p1,...
+    // Los signos ; : y , no pueden aparecer en un termino porque los quita el preprocesado
+    private static void guardar_en_cache(String name, Map<String, List<Integer>> posiciones_doc) throws IOException {
+        BufferedWriter cache = nueva_cache;
+        cache.write(name);
+        for (Map.Entry<String, List<Integer>> entry : posiciones_doc.entrySet()) {
+            cache.write(";" + entry.getKey() + ":");
+            List<Integer> lista = entry.getValue();
+            for (int i = 0; i < lista.size(); i++) {
+                if (i > 0)
+                    cache.write(",");
+                cache.write(String.valueOf(lista.get(i)));
             }
         }
+        cache.newLine();
     }
 
-    // Calcular tf de un documento. Se considera que la frecuencia de cada termino
-    // para este documento esta almacenada en terminos_map
-    private static void calcular_tf(String name) {
+    // Carga frecuencias.dat: nombre del documento -> resto de la linea
+    private static Map<String, String> cargar_cache(String fichero) throws IOException {
+        Map<String, String> cache = new HashMap<>();
+        Path ruta = Paths.get(fichero);
+        if (Files.exists(ruta)) {
+            for (String linea : Files.readAllLines(ruta, StandardCharsets.UTF_8)) {
+                int separador = linea.indexOf(';');
+                if (separador > 0)
+                    cache.put(linea.substring(0, separador), linea.substring(separador + 1));
+                else if (!linea.isEmpty())
+                    cache.put(linea, "");
+            }
+        }
+        return cache;
+    }
+
+    // Documentos nuevos o modificados (lineas A y M) del manifiesto del rastreador. Los
+    // borrados (D) ya no estan en el corpus, asi que no hace falta hacer nada con ellos
+    private static Set<String> cargar_manifiesto(String fichero) throws IOException {
+        Set<String> cambiados = new HashSet<>();
+        // Si no hay manifiesto es que no ha cambiado nada desde el ultimo rastreo
+        if (!Files.exists(Paths.get(fichero)))
+            return cambiados;
+        for (String linea : Files.readAllLines(Paths.get(fichero), StandardCharsets.UTF_8)) {
+            String[] partes = linea.split(" ", 2);
+            if (partes.length == 2 && (partes[0].equals("A") || partes[0].equals("M")))
+                cambiados.add(Paths.get(partes[1]).getFileName().toString());
+        }
+        return cambiados;
+    }
+
+    // Calcular tf de un documento a partir de la frecuencia de cada termino
+    private static void calcular_tf(String name, Map<String, Integer> frecuencias,
+            Map<String, List<Integer>> posiciones_doc) {
+        // Asigno al documento el siguiente docID
+        int doc = documentos.size();
+        documentos.add(name);
         // Recorro todos los terminos del documento actual
-        for (Map.Entry<String, Integer> entry : terminos_map.entrySet()) {
+        for (Map.Entry<String, Integer> entry : frecuencias.entrySet()) {
             // Obtengo el termino
             String termino = entry.getKey();
             // Obtengo su frecuencia
             Integer frecuencia = entry.getValue();
             // Calculo el tf
-            Double tf = 1 + Math.log(frecuencia) / Math.log(2);
-            // Si no esta el termino en el mapa tf-idf lo inicializo vacio
-            if (!indice_invertido.containsKey(termino)) {
-                Map<String, Double> mapaInterno = new HashMap<>();
-                Tupla<Double, Map<String, Double>> nuevaTupla = new Tupla<>(0.0, mapaInterno);
-                // Inserta la nueva tupla en el mapa con la clave proporcionada
-                indice_invertido.put(termino, nuevaTupla);
+            double tf = 1 + Math.log(frecuencia) / Math.log(2);
+            // Si el termino es nuevo le asigno el siguiente termID y lo inicializo vacio
+            Integer id = diccionario.get(termino);
+            if (id == null) {
+                id = terminos.size();
+                diccionario.put(termino, id);
+                terminos.add(termino);
+                Tupla<Double, ListaPostings> nuevaTupla = new Tupla<>(0.0, new ListaPostings());
+                // Inserta la nueva tupla en la posicion del termID
+                indice_invertido.add(nuevaTupla);
+                if (indice_posicional)
+                    posiciones.add(new Posiciones.Lista());
             }
             // Recupero la tupla del termino actual
-            Tupla<Double, Map<String, Double>> tupla_actual = indice_invertido.get(termino);
-            // Recupero el map donde guardo el documento y su tf
-            Map<String, Double> map_actual = tupla_actual.second;
-            // Guardo el id y el tf
-            map_actual.put(name, tf);
+            Tupla<Double, ListaPostings> tupla_actual = indice_invertido.get(id);
+            // Guardo las posiciones del termino en este documento
+            if (indice_posicional)
+                posiciones.get(id).anadir(doc, posiciones_doc.get(termino));
+            // Guardo el docID y el tf
+            tupla_actual.second.add(doc, tf);
         }
     }
 
+    // Calcula el idf de cada termino, sustituye el tf por el peso y acumula la
+    // longitud de cada documento. Los terminos se reparten entre los hilos y cada
+    // uno acumula la longitud en su propio array por docID, que se suman al final
     private static void calcular_idf_y_longitud() {
-        // Recorro todos los terminos del corpus
-        for (Map.Entry<String, Tupla<Double, Map<String, Double>>> entry : indice_invertido.entrySet()) {
-            // Extraigo la tupla formada por el IDF(inicialmente 0) y el map con los
-            // documentos y el peso
-            Tupla<Double, Map<String, Double>> tupla_actual = entry.getValue();
-            // Obtengo el numero de documentos distintos en los que aparece el termino
-            Integer n = tupla_actual.second.size();
-            // Calculo el idf y lo incluyo en el map
-            Double a = (double) N / n;
-            Double idf = Math.log(a) / Math.log(2);
-            tupla_actual.first = idf;
-            for (Map.Entry<String, Double> doc : tupla_actual.second.entrySet()) {
-                String docName = doc.getKey();
-                // sustituyo el tf por el peso del termino en el documento
-                Double peso = doc.getValue() * idf;
-                doc.setValue(peso);
-                // calculo de la longitud
-                if (longitud.get(docName) != null)
-                    longitud.put(docName, longitud.get(docName) + peso * peso);
-                else
-                    longitud.put(docName, peso * peso);
-            }
-        }
-        for (Map.Entry<String, Double> doc : longitud.entrySet())
-            doc.setValue(Math.sqrt(doc.getValue()));
+        ForkJoinPool pool = new ForkJoinPool(hilos);
+        try {
+            int umbral = Math.max(1, (indice_invertido.size() + hilos - 1) / hilos);
+            longitud = pool.invoke(new CalculoIdf(0, indice_invertido.size(), umbral));
+        } finally {
+            pool.shutdown();
+        }
+        for (int doc = 0; doc < longitud.length; doc++)
+            longitud[doc] = Math.sqrt(longitud[doc]);
     }
 
+    private static class CalculoIdf extends RecursiveTask<double[]> {
+        private static final long serialVersionUID = 1L;
+        // Rango de termID [desde, hasta) de esta tarea
+        private final int desde, hasta, umbral;
+
+        CalculoIdf(int desde, int hasta, int umbral) {
+            this.desde = desde;
+            this.hasta = hasta;
+            this.umbral = umbral;
+        }
+
+        @Override
+        protected double[] compute() {
+            if (hasta - desde > umbral) {
+                int mitad = (desde + hasta) >>> 1;
+                CalculoIdf izquierda = new CalculoIdf(desde, mitad, umbral);
+                izquierda.fork();
+                double[] suma = new CalculoIdf(mitad, hasta, umbral).compute();
+                double[] otra = izquierda.join();
+                for (int doc = 0; doc < suma.length; doc++)
+                    suma[doc] += otra[doc];
+                return suma;
+            }
+            // Cuadrado de la longitud de cada documento para estos terminos
+            double[] suma = new double[documentos.size()];
+            for (int id = desde; id < hasta; id++) {
+                // Cada tupla esta formada por el IDF(inicialmente 0) y la lista con los
+                // documentos y el peso
+                Tupla<Double, ListaPostings> tupla_actual = indice_invertido.get(id);
+                ListaPostings postings = tupla_actual.second;
+                // El numero de documentos distintos en los que aparece el termino es el
+                // tamaño de la lista
+                double a = (double) N / postings.size;
+                double idf = Math.log(a) / Math.log(2);
+                tupla_actual.first = idf;
+                for (int i = 0; i < postings.size; i++) {
+                    // sustituyo el tf por el peso del termino en el documento
+                    double peso = postings.pesos[i] * idf;
+                    postings.pesos[i] = peso;
+                    // calculo de la longitud
+                    suma[postings.docs[i]] += peso * peso;
+                }
+            }
+            return suma;
+        }
+    }
+
+    // Poda estatica: quita los postings que casi nunca llegan a los primeros resultados.
+    // El impacto de un posting es lo que suma a la puntuacion del documento, peso * idf.
+    //   - Por termino: se quitan los que no llegan a poda_termino veces el impacto del
+    //     poda_k-esimo mejor documento del termino (los terminos con poda_k documentos o
+    //     menos no se tocan)
+    //   - Por documento: cada documento conserva la fraccion poda_documento de sus
+    //     terminos con mayor impacto, al menos uno
+    // Los umbrales se calculan sobre el indice sin podar y un posting se queda si supera
+    // los dos. El idf y la longitud no cambian, asi que los postings que quedan puntuan
+    // igual que antes. Las posiciones tampoco se podan: el cursor busca cada documento
+    // por docID y se salta los que ya no estan en la lista
+    private static void podar_indice() {
+        double[] umbral_documento = new double[documentos.size()];
+        if (poda_documento < 1) {
+            // Impactos agrupados por documento: los del documento d van de inicio[d] a inicio[d + 1]
+            int[] inicio = new int[documentos.size() + 1];
+            for (Tupla<Double, ListaPostings> tupla : indice_invertido)
+                for (int i = 0; i < tupla.second.size; i++)
+                    inicio[tupla.second.docs[i] + 1]++;
+            for (int doc = 0; doc < documentos.size(); doc++)
+                inicio[doc + 1] += inicio[doc];
+            double[] impactos = new double[inicio[documentos.size()]];
+            int[] siguiente = Arrays.copyOf(inicio, documentos.size());
+            for (Tupla<Double, ListaPostings> tupla : indice_invertido)
+                for (int i = 0; i < tupla.second.size; i++)
+                    impactos[siguiente[tupla.second.docs[i]]++] = tupla.second.pesos[i] * tupla.first;
+            for (int doc = 0; doc < documentos.size(); doc++) {
+                int n = inicio[doc + 1] - inicio[doc];
+                if (n == 0)
+                    continue;
+                Arrays.sort(impactos, inicio[doc], inicio[doc + 1]);
+                int conservar = Math.max(1, (int) Math.ceil(n * poda_documento));
+                umbral_documento[doc] = impactos[inicio[doc + 1] - conservar];
+            }
+        } else {
+            Arrays.fill(umbral_documento, Double.NEGATIVE_INFINITY);
+        }
+
+        long antes = 0, despues = 0;
+        for (Tupla<Double, ListaPostings> tupla : indice_invertido) {
+            ListaPostings postings = tupla.second;
+            double idf = tupla.first;
+            antes += postings.size;
+            double umbral_termino = Double.NEGATIVE_INFINITY;
+            if (poda_termino > 0 && postings.size > poda_k) {
+                double[] impactos = Arrays.copyOf(postings.pesos, postings.size);
+                Arrays.sort(impactos);
+                umbral_termino = poda_termino * impactos[postings.size - poda_k] * idf;
+            }
+            // Se compacta la lista sin cambiar el orden por docID
+            int quedan = 0;
+            for (int i = 0; i < postings.size; i++) {
+                double impacto = postings.pesos[i] * idf;
+                if (impacto >= umbral_termino && impacto >= umbral_documento[postings.docs[i]]) {
+                    postings.docs[quedan] = postings.docs[i];
+                    postings.pesos[quedan] = postings.pesos[i];
+                    quedan++;
+                }
+            }
+            postings.size = quedan;
+            despues += quedan;
+        }
+        System.out.printf(Locale.ROOT, "Postings: %d de %d (%.1f%% podados)%n%n", despues, antes,
+                antes == 0 ? 0 : 100.0 * (antes - despues) / antes);
+    }
+
+    // Cada linea del fichero corresponde a un termino, en orden de termID, de forma
+    // que el buscador puede localizar la linea de un termino con el diccionario
     private static void guardar_indice() {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter("utility/indice_invertido.dat"))) {
-            for (Map.Entry<String, Tupla<Double, Map<String, Double>>> entry : indice_invertido.entrySet()) {
-                String termino = entry.getKey();
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(en_generacion("indice_invertido.dat")))) {
+            for (int id = 0; id < indice_invertido.size(); id++) {
+                String termino = terminos.get(id);
                 // System.out.println(termino + "\n");
-                Tupla<Double, Map<String, Double>> tupla_actual = entry.getValue();
+                Tupla<Double, ListaPostings> tupla_actual = indice_invertido.get(id);
                 Double idf = tupla_actual.first;
-                Map<String, Double> documentos = tupla_actual.second;
+                ListaPostings postings = tupla_actual.second;
                 writer.write(termino + ";" + idf + ";");
-                for (Map.Entry<String, Double> documento : documentos.entrySet())
-                    writer.write(documento.getKey() + "-" + documento.getValue() + ";");
+                for (int i = 0; i < postings.size; i++)
+                    writer.write(documentos.get(postings.docs[i]) + "-" + postings.pesos[i] + ";");
                 writer.newLine();
             }
             System.out.println("¡Indice invertido guardado exitosamente!\n");
         } catch (IOException e) {
             e.printStackTrace();
+            error_guardando = true;
+        }
+    }
+
+    private static void guardar_diccionario() {
+        try {
+            Diccionario.guardar(terminos, en_generacion("diccionario.dat"));
+            System.out.println("¡Diccionario guardado exitosamente!\n");
+        } catch (IOException e) {
+            e.printStackTrace();
+            error_guardando = true;
         }
     }
 
+    // Las lineas van en orden de docID, incluidos los documentos sin terminos
     private static void guardar_longitud() {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter("utility/longitud.dat"))) {
-            for (Map.Entry<String, Double> entry : longitud.entrySet()) {
-                writer.write(entry.getKey() + "=" + entry.getValue());
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(en_generacion("longitud.dat")))) {
+            for (int doc = 0; doc < documentos.size(); doc++) {
+                writer.write(documentos.get(doc) + "=" + longitud[doc]);
                 writer.newLine();
             }
             System.out.println("¡Longitud guardada exitosamente!\n");
         } catch (IOException e) {
             e.printStackTrace();
+            error_guardando = true;
+        }
+    }
+
+    // Las sugerencias son los terminos del diccionario, o las palabras originales si se
+    // han recogido con -superficies, ordenadas por el df de su stem. Los terminos que
+    // han quedado sin documentos (duplicados) no se sugieren
+    private static void guardar_autocompletado() {
+        Map<String, Tupla<Long, Integer>> sugerencias = new HashMap<>();
+        boolean[] con_superficie = new boolean[terminos.size()];
+        if (superficies != null) {
+            Stemmer stemmer = new Stemmer();
+            for (Map.Entry<String, Integer> entry : superficies.entrySet()) {
+                char[] palabra = entry.getKey().toCharArray();
+                stemmer.add(palabra, palabra.length);
+                stemmer.stem();
+                Integer id = diccionario.get(stemmer.toString());
+                if (id == null || indice_invertido.get(id).second.size == 0)
+                    continue;
+                // A igual df va antes la forma mas frecuente
+                long peso = ((long) indice_invertido.get(id).second.size << 32) | entry.getValue();
+                sugerencias.put(entry.getKey(), new Tupla<>(peso, id));
+                con_superficie[id] = true;
+            }
+        }
+        // Los terminos de documentos reutilizados de la cache no tienen forma original
+        for (int id = 0; id < terminos.size(); id++) {
+            int df = indice_invertido.get(id).second.size;
+            if (!con_superficie[id] && df > 0)
+                sugerencias.putIfAbsent(terminos.get(id), new Tupla<>((long) df << 32, id));
+        }
+        try {
+            Autocompletado.guardar(sugerencias, en_generacion("autocompletado.dat"));
+            System.out.println("¡Sugerencias guardadas exitosamente!\n");
+        } catch (IOException e) {
+            e.printStackTrace();
+            error_guardando = true;
+        }
+    }
+
+    private static void guardar_posiciones() {
+        try {
+            Posiciones.guardar(posiciones, en_generacion("posiciones.dat"));
+            System.out.println("¡Posiciones guardadas exitosamente!\n");
+        } catch (IOException e) {
+            e.printStackTrace();
+            error_guardando = true;
+        }
+    }
+
+    private static void guardar_duplicados() {
+        try {
+            duplicados.guardar(en_generacion("duplicados.dat"));
+        } catch (IOException e) {
+            e.printStackTrace();
+            error_guardando = true;
+        }
+    }
+
+    // Prepara el indice: con manifiesto solo se leen y preprocesan los documentos nuevos
+    // o modificados; los demas se recuperan de frecuencias.dat
+    static boolean iniciar() {
+        if (manifiesto != null) {
+            try {
+                cache = cargar_cache("utility/frecuencias.dat");
+                cambiados = cargar_manifiesto(manifiesto);
+                System.out.println("Manifiesto: " + cambiados.size() + " documentos nuevos o modificados\n");
+            } catch (IOException e) {
+                // Sin manifiesto o cache valida se procesa todo el corpus
+                e.printStackTrace();
+                cache = new HashMap<>();
+            }
+        }
+        try {
+            // Si hay un punto de control, la ejecucion anterior se interrumpio: se sigue
+            // escribiendo el mismo frecuencias.dat.tmp y sus documentos no se vuelven a procesar
+            boolean reanudar = cargar_punto_control();
+            salida_cache = new FileOutputStream("utility/frecuencias.dat.tmp", reanudar);
+            // En UTF-8 como se lee, sea cual sea la codificacion de la plataforma
+            nueva_cache = new BufferedWriter(new OutputStreamWriter(salida_cache, StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+        return true;
+    }
+
+    // Carga el punto de control de una ejecucion interrumpida. Devuelve false si no hay
+    private static boolean cargar_punto_control() throws IOException {
+        Path punto_control = Paths.get(PUNTO_CONTROL);
+        Path parcial = Paths.get("utility/frecuencias.dat.tmp");
+        if (!Files.exists(punto_control) || !Files.exists(parcial))
+            return false;
+        long longitud;
+        try {
+            longitud = Long.parseLong(Files.readString(punto_control).trim());
+        } catch (NumberFormatException e) {
+            // Un punto de control ilegible no sirve: se empieza de cero
+            return false;
+        }
+        // Lo que se escribio despues del ultimo punto de control puede estar a medias
+        try (FileChannel canal = FileChannel.open(parcial, StandardOpenOption.WRITE)) {
+            if (canal.size() < longitud)
+                return false;
+            canal.truncate(longitud);
+        }
+        hechos = new ConcurrentHashMap<>(cargar_cache(parcial.toString()));
+        // Si se ha rastreado entre medias, lo que el manifiesto marca como cambiado hay
+        // que volver a procesarlo. Su linea nueva va despues en frecuencias.dat.tmp y es
+        // la que vale al cargarlo
+        hechos.keySet().removeAll(cambiados);
+        System.out.println("Reanudando la indexacion: " + hechos.size() + " documentos ya procesados\n");
+        return true;
+    }
+
+    // Guarda en disco lo que se lleva de frecuencias.dat.tmp y apunta hasta donde es
+    // valido. El punto de control se escribe en un temporal y se renombra
+    private static void guardar_punto_control() throws IOException {
+        nueva_cache.flush();
+        salida_cache.getChannel().force(false);
+        long longitud = salida_cache.getChannel().size();
+        Path temporal = Paths.get(PUNTO_CONTROL + ".tmp");
+        Files.writeString(temporal, longitud + "\n");
+        Files.move(temporal, Paths.get(PUNTO_CONTROL), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        sin_punto_control = 0;
+    }
+
+    // Linea de frecuencias.dat del documento si se puede reutilizar, o null si hay que
+    // procesarlo
+    static String cacheado(String name) {
+        String hecho = hechos.get(name);
+        if (hecho != null)
+            return hecho;
+        return cambiados.contains(name) ? null : cache.get(name);
+    }
+
+    // Anade al indice un documento ya dividido en terminos. Lo llama un solo hilo
+    static void anadir_documento(String name, Map<String, Integer> frecuencias,
+            Map<String, List<Integer>> posiciones_doc) throws IOException {
+        // Un documento de una ejecucion interrumpida ya esta en frecuencias.dat.tmp
+        if (hechos.remove(name) == null) {
+            guardar_en_cache(name, posiciones_doc);
+            if (cada_punto_control > 0 && ++sin_punto_control >= cada_punto_control)
+                guardar_punto_control();
         }
+        // Compruebo si es casi igual a un documento anterior
+        String representante = null;
+        if (duplicados != null)
+            representante = duplicados.buscarOAnadir(name, Duplicados.simhash(frecuencias));
+        // Un duplicado no se indexa ni cuenta para el idf
+        if (deduplicar && representante != null)
+            return;
+        // Calculo el tf y empiezo a rellenar el indice
+        calcular_tf(name, frecuencias, posiciones_doc);
+        // Aumento el numero de documentos
+        N++;
+    }
+
+    // Termina el indice cuando ya se han anadido todos los documentos y guarda los ficheros
+    static void finalizar() {
+        // Si falla algo a partir de aqui, la siguiente ejecucion no tiene que volver a
+        // procesar ningun documento
+        try {
+            guardar_punto_control();
+            nueva_cache.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (manifiesto != null)
+            System.out.println("Documentos reutilizados sin volver a procesarlos: " + reutilizados + "\n");
+        System.out.println("Calculando el IDF de cada termino y la longitud de cada documento...\n");
+        // Calculo el idf y completo el indice
+        calcular_idf_y_longitud();
+        if (poda_termino > 0 || poda_documento < 1) {
+            System.out.println("Podando los postings de menor impacto...\n");
+            podar_indice();
+        }
+        // Los ficheros se escriben en un directorio nuevo que no se publica hasta el final
+        try {
+            nueva_generacion = Files.createDirectories(
+                    Paths.get(GENERACIONES, String.valueOf(System.currentTimeMillis())));
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("No se ha podido guardar el indice; se conserva el anterior.");
+            return;
+        }
+        // Imprimo el fichero con el indice
+        System.out.println("Guardando el indice invertido...\n");
+        guardar_indice();
+        System.out.println("Guardando el diccionario de terminos...\n");
+        guardar_diccionario();
+        System.out.println("Guardando la longitud de los documentos...\n");
+        guardar_longitud();
+        System.out.println("Guardando las sugerencias de autocompletado...\n");
+        guardar_autocompletado();
+        if (indice_posicional) {
+            System.out.println("Guardando las posiciones de los terminos...\n");
+            guardar_posiciones();
+        }
+        if (duplicados != null) {
+            System.out.println("Guardando los documentos duplicados (" + duplicados.numDuplicados() + ")...\n");
+            guardar_duplicados();
+        }
+        if (error_guardando || !publicar()) {
+            // El indice anterior se queda como estaba y el punto de control sigue valido
+            System.err.println("No se ha podido guardar el indice; se conserva el anterior.");
+            borrar_generacion(nueva_generacion);
+            return;
+        }
+
+        try {
+            Files.move(Paths.get("utility/frecuencias.dat.tmp"), Paths.get("utility/frecuencias.dat"),
+                    StandardCopyOption.REPLACE_EXISTING);
+            Files.deleteIfExists(Paths.get(PUNTO_CONTROL));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        // El manifiesto ya esta aplicado
+        if (manifiesto != null && Files.exists(Paths.get(manifiesto))) {
+            try {
+                Files.move(Paths.get(manifiesto), Paths.get(manifiesto + ".procesado"),
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // Ruta de uno de los ficheros del indice dentro de la generacion nueva
+    private static String en_generacion(String fichero) {
+        return nueva_generacion.resolve(fichero).toString();
+    }
+
+    // Publica la generacion nueva cambiando indice.gen, que es lo unico que se renombra:
+    // el buscador ve o todos los ficheros de la generacion anterior o todos los de la
+    // nueva, nunca una mezcla. Despues se borran las generaciones viejas salvo la
+    // anterior.
+    // Un buscador puede seguir con una generacion mas vieja (con -recarga 0 o en una
+    // ejecucion por lotes larga): no pasa nada porque Indice.cargar deja todos sus
+    // ficheros leidos o abiertos, y un fichero abierto no desaparece al borrarlo (en
+    // Windows no se deja borrar y se vuelve a intentar en la siguiente publicacion).
+    // Lo unico que puede fallar es la carga de un buscador que esta leyendo una
+    // generacion justo cuando se borra; entonces sigue con la que tenia
+    private static boolean publicar() {
+        String anterior = null;
+        try {
+            Path gen = Paths.get(GENERACION);
+            if (Files.exists(gen))
+                anterior = Files.readString(gen).trim();
+            Path temporal = Paths.get(GENERACION + ".tmp");
+            Files.writeString(temporal, nueva_generacion.getFileName() + "\n");
+            Files.move(temporal, gen, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+        File[] generaciones = new File(GENERACIONES).listFiles(File::isDirectory);
+        if (generaciones != null) {
+            for (File generacion : generaciones) {
+                if (!generacion.getName().equals(nueva_generacion.getFileName().toString())
+                        && !generacion.getName().equals(anterior))
+                    borrar_generacion(generacion.toPath());
+            }
+        }
+        return true;
+    }
+
+    private static void borrar_generacion(Path directorio) {
+        File[] ficheros = directorio.toFile().listFiles();
+        if (ficheros != null) {
+            for (File fichero : ficheros)
+                fichero.delete();
+        }
+        directorio.toFile().delete();
     }
 
     public static void indexar() {
+        if (!iniciar())
+            return;
         // Abro el directorio del corpus
         File dir = new File(corpus_path);
         // Compruebo que la direccion proporcionada (o por defecto) exista y si es un
         // directorio
         if (dir.exists() && dir.isDirectory()) {
             // Listo todos los documentos en un array
-            File[] documentos = dir.listFiles();
+            File[] ficheros = dir.listFiles();
             // Compruebo que este no sea nulo
-            if (documentos != null) {
+            if (ficheros != null) {
                 // Recorro todos los documentos
                 System.out.println("Calculando TF...\n");
-                for (File documento : documentos) {
+                for (File documento : ficheros) {
                     try {
-                        // Leo 1 documento
-                        String contenido = new String(Files.readAllBytes(Paths.get(documento.getPath())));
-                        // Preproceso el documento (el preprocesado esta delegado a la clase
-                        // preprocesado que tambien se usara para la busqueda)
-                        contenido = preprocesado.procesar(contenido);
-                        // Divido los terminos
-                        dividir_en_terminos(contenido);
-                        // Calculo el tf y empiezo a rellenar el indice
-                        calcular_tf(documento.getName());
-                        // Borro el contenido del map auxiliar para que lo use el siguiente documento
-                        terminos_map.clear();
+                        String cacheado = cacheado(documento.getName());
+                        if (cacheado != null) {
+                            // El documento no ha cambiado desde la ultima indexacion
+                            cargar_desde_cache(cacheado, terminos_map, posiciones_map);
+                            reutilizados++;
+                        } else {
+                            // Leo 1 documento
+                            String contenido = new String(Files.readAllBytes(Paths.get(documento.getPath())));
+                            // Preproceso el documento (el preprocesado esta delegado a la clase
+                            // preprocesado que tambien se usara para la busqueda)
+                            contenido = preprocesado.procesar(contenido);
+                            // Divido los terminos
+                            dividir_en_terminos(contenido, terminos_map, posiciones_map);
+                        }
+                        anadir_documento(documento.getName(), terminos_map, posiciones_map);
                     } catch (IOException e) {
                         e.printStackTrace();
+                        // Aumento el numero de documentos
+                        N++;
                     }
-                    // Aumento el numero de documentos
-                    N++;
+                    // Borro el contenido de los map auxiliares para que los use el siguiente documento
+                    terminos_map.clear();
+                    posiciones_map.clear();
                 }
             }
         }
-        System.out.println("Calculando el IDF de cada termino y la longitud de cada documento...\n");
-        // Calculo el idf y completo el indice
-        calcular_idf_y_longitud();
-        // Imprimo el fichero con el indice
-        System.out.println("Guardando el indice invertido...\n");
-        guardar_indice();
-        System.out.println("Guardando la longitud de los documentos...\n");
-        guardar_longitud();
+        finalizar();
+    }
+
+    // Opciones:
+    //   -hilos N      hilos para el calculo del idf y la longitud
+    //   -duplicados   detecta casi duplicados y los guarda en utility/duplicados.dat
+    //   -deduplicar   ademas solo indexa un documento de cada grupo de duplicados
+    //   -posiciones   guarda las posiciones de los terminos para consultas de frase
+    //   -superficies  el autocompletado sugiere las palabras tal como aparecen en los
+    //                 documentos en vez de los stems
+    //   -manifiesto F solo procesa los documentos nuevos o modificados segun el
+    //                 manifiesto del rastreador (por ejemplo rastreo/cambios.txt)
+    //   -puntoControl N guarda el progreso cada N documentos (0 = nunca). Si la
+    //                 indexacion se interrumpe, la siguiente sigue donde se quedo
+    //   -reiniciar    descarta el progreso de una indexacion interrumpida
+    //   -podarTermino E quita los postings con menos de E veces el impacto del K-esimo
+    //                 mejor documento de su termino (por ejemplo 0.1)
+    //   -podarK K     K de la poda por termino (10 por defecto)
+    //   -podarDocumento F cada documento conserva solo la fraccion F de sus terminos
+    //                 con mayor impacto (por ejemplo 0.5)
+    // Las opciones que no conoce se ignoran
+    static void opciones(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-hilos") && i + 1 < args.length)
+                hilos = Math.max(1, Integer.parseInt(args[++i]));
+            else if (args[i].equals("-manifiesto") && i + 1 < args.length)
+                manifiesto = args[++i];
+            else if (args[i].equals("-puntoControl") && i + 1 < args.length)
+                cada_punto_control = Math.max(0, Integer.parseInt(args[++i]));
+            else if (args[i].equals("-podarTermino") && i + 1 < args.length)
+                poda_termino = Math.max(0, Double.parseDouble(args[++i]));
+            else if (args[i].equals("-podarK") && i + 1 < args.length)
+                poda_k = Math.max(1, Integer.parseInt(args[++i]));
+            else if (args[i].equals("-podarDocumento") && i + 1 < args.length)
+                poda_documento = Math.min(1, Math.max(0, Double.parseDouble(args[++i])));
+            else if (args[i].equals("-reiniciar"))
+                new File(PUNTO_CONTROL).delete();
+            else if (args[i].equals("-superficies"))
+                superficies = new ConcurrentHashMap<>();
+            else if (args[i].equals("-posiciones"))
+                indice_posicional = true;
+            else if (args[i].equals("-duplicados"))
+                duplicados = new Duplicados();
+            else if (args[i].equals("-deduplicar")) {
+                duplicados = new Duplicados();
+                deduplicar = true;
+            }
+        }
     }
 
     public static void main(String[] args) {
+        opciones(args);
         indexar();
     }
-}
\ No newline at end of file
+}
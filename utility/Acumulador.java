@@ -0,0 +1,206 @@
+package utility;
+
+import java.util.Arrays;
+
+/**
+ * Acumulador denso de puntuaciones: un float por docID. Sumar un posting es una
+ * escritura en un array, sin buscar en un mapa ni crear objetos, y los k mejores
+ * se sacan recorriendo el array con un monticulo de tamano k.
+ * <p>
+ * Cada hilo reutiliza su acumulador entre consultas (ver {@link #deHilo(int)});
+ * al terminar una consulta se ponen a cero solo los documentos que se tocaron.
+ * <p>
+ * Si la JVM se arranca con {@code --add-modules jdk.incubator.vector} y se ha
+ * compilado {@code AcumuladorVectorial}, se usa esa version, que suma y recorre
+ * bloques enteros con instrucciones SIMD. Si no, esta version escalar.
+ */
+public class Acumulador {
+    // Con mas postings que documentos / LIMPIAR_TODO sale mas barato poner el array entero a cero
+    private static final int LIMPIAR_TODO = 8;
+
+    private static final ThreadLocal<Acumulador> porHilo = new ThreadLocal<>();
+    private static final boolean VECTORIAL = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+
+    protected float[] puntuaciones;
+    // Listas sumadas desde la ultima vez que se limpio
+    private int[][] tocados = new int[8][];
+    private int[] tamTocados = new int[8];
+    private int numTocados = 0;
+    // Documentos sumados de uno en uno
+    private int[] sueltos = new int[64];
+    private int numSueltos = 0;
+    private long postingsTocados = 0;
+
+    protected Acumulador(int numDocumentos) {
+        puntuaciones = new float[numDocumentos];
+    }
+
+    // Acumulador del hilo actual con sitio para numDocumentos, ya a cero
+    public static Acumulador deHilo(int numDocumentos) {
+        Acumulador acumulador = porHilo.get();
+        if (acumulador == null || acumulador.puntuaciones.length < numDocumentos) {
+            acumulador = crear(numDocumentos);
+            porHilo.set(acumulador);
+        }
+        return acumulador;
+    }
+
+    private static Acumulador crear(int numDocumentos) {
+        if (VECTORIAL) {
+            try {
+                return (Acumulador) Class.forName("utility.AcumuladorVectorial")
+                        .getDeclaredConstructor(int.class).newInstance(numDocumentos);
+            } catch (ReflectiveOperationException | LinkageError e) {
+                // Sin la clase compilada se usa la version escalar
+            }
+        }
+        return new Acumulador(numDocumentos);
+    }
+
+    public float puntuacion(int doc) {
+        return puntuaciones[doc];
+    }
+
+    // Suma a cada documento de docs su puntuacion. Los documentos de una lista de
+    // postings no se repiten
+    public void sumar(int[] docs, float[] puntuacion, int n) {
+        apuntar(docs, n);
+        sumarBloque(docs, puntuacion, 0, n);
+    }
+
+    // Suma la puntuacion de un solo documento, para postings que no estan en un int[]
+    public void sumar(int doc, float puntuacion) {
+        // Pasado el limite se limpia el array entero y ya no hace falta apuntarlos
+        if (postingsTocados < puntuaciones.length / LIMPIAR_TODO) {
+            if (numSueltos == sueltos.length)
+                sueltos = Arrays.copyOf(sueltos, numSueltos * 2);
+            sueltos[numSueltos++] = doc;
+        }
+        postingsTocados++;
+        puntuaciones[doc] += puntuacion;
+    }
+
+    // Como sumar(docs, puntuacion, n), pero el llamador va a reutilizar los arrays,
+    // asi que los docID se copian para poder limpiarlos despues
+    void sumarCopia(int[] docs, float[] puntuacion, int n) {
+        if (postingsTocados < puntuaciones.length / LIMPIAR_TODO) {
+            if (numSueltos + n > sueltos.length)
+                sueltos = Arrays.copyOf(sueltos, Math.max(sueltos.length * 2, numSueltos + n));
+            System.arraycopy(docs, 0, sueltos, numSueltos, n);
+            numSueltos += n;
+        }
+        postingsTocados += n;
+        sumarBloque(docs, puntuacion, 0, n);
+    }
+
+    protected void sumarBloque(int[] docs, float[] puntuacion, int desde, int hasta) {
+        for (int i = desde; i < hasta; i++)
+            puntuaciones[docs[i]] += puntuacion[i];
+    }
+
+    // Los k candidatos (ordenados por docID) con mayor puntuacion, de mayor a menor.
+    // Con la misma puntuacion va antes el docID menor
+    public int[] mejores(int[] candidatos, int k) {
+        k = Math.min(k, candidatos.length);
+        if (k <= 0)
+            return new int[0];
+        // Monticulo de minimos con los k mejores vistos hasta ahora
+        int[] monticulo = new int[k];
+        int n = 0;
+        int i = 0;
+        while (i < candidatos.length) {
+            if (n < k) {
+                monticulo[n++] = candidatos[i++];
+                subir(monticulo, n - 1);
+                continue;
+            }
+            // Como los candidatos van por docID, uno que solo empata con el peor no entra
+            float umbral = puntuaciones[monticulo[0]];
+            i = siguienteMayor(candidatos, i, umbral);
+            if (i >= candidatos.length)
+                break;
+            monticulo[0] = candidatos[i++];
+            bajar(monticulo, 0, n);
+        }
+        // Vacio el monticulo del peor al mejor
+        int[] resultado = new int[n];
+        for (int j = n - 1; j >= 0; j--) {
+            resultado[j] = monticulo[0];
+            monticulo[0] = monticulo[j];
+            bajar(monticulo, 0, j);
+        }
+        return resultado;
+    }
+
+    // Primer candidato desde la posicion indicada con puntuacion mayor que el umbral,
+    // o candidatos.length si no hay ninguno
+    protected int siguienteMayor(int[] candidatos, int desde, float umbral) {
+        for (int i = desde; i < candidatos.length; i++)
+            if (puntuaciones[candidatos[i]] > umbral)
+                return i;
+        return candidatos.length;
+    }
+
+    // Deja a cero todo lo que se ha sumado
+    public void limpiar() {
+        if (postingsTocados > puntuaciones.length / LIMPIAR_TODO) {
+            Arrays.fill(puntuaciones, 0f);
+        } else {
+            for (int t = 0; t < numTocados; t++) {
+                int[] docs = tocados[t];
+                for (int i = 0; i < tamTocados[t]; i++)
+                    puntuaciones[docs[i]] = 0f;
+            }
+            for (int i = 0; i < numSueltos; i++)
+                puntuaciones[sueltos[i]] = 0f;
+        }
+        numSueltos = 0;
+        Arrays.fill(tocados, 0, numTocados, null);
+        numTocados = 0;
+        postingsTocados = 0;
+    }
+
+    private void apuntar(int[] docs, int n) {
+        if (numTocados == tocados.length) {
+            tocados = Arrays.copyOf(tocados, numTocados * 2);
+            tamTocados = Arrays.copyOf(tamTocados, numTocados * 2);
+        }
+        tocados[numTocados] = docs;
+        tamTocados[numTocados++] = n;
+        postingsTocados += n;
+    }
+
+    // a es peor que b: menor puntuacion o, empatados, mayor docID
+    private boolean peor(int a, int b) {
+        float pa = puntuaciones[a], pb = puntuaciones[b];
+        return pa < pb || (pa == pb && a > b);
+    }
+
+    private void subir(int[] monticulo, int i) {
+        while (i > 0) {
+            int padre = (i - 1) / 2;
+            if (!peor(monticulo[i], monticulo[padre]))
+                return;
+            int aux = monticulo[i];
+            monticulo[i] = monticulo[padre];
+            monticulo[padre] = aux;
+            i = padre;
+        }
+    }
+
+    private void bajar(int[] monticulo, int i, int n) {
+        while (true) {
+            int menor = i, izq = 2 * i + 1, der = izq + 1;
+            if (izq < n && peor(monticulo[izq], monticulo[menor]))
+                menor = izq;
+            if (der < n && peor(monticulo[der], monticulo[menor]))
+                menor = der;
+            if (menor == i)
+                return;
+            int aux = monticulo[i];
+            monticulo[i] = monticulo[menor];
+            monticulo[menor] = aux;
+            i = menor;
+        }
+    }
+}
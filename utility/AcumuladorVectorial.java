@@ -0,0 +1,49 @@
+package utility;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Version SIMD de {@link Acumulador} con la Vector API. Los postings se suman de
+ * bloque en bloque (gather, suma y scatter sobre el array de puntuaciones) y la
+ * busqueda de los k mejores descarta bloques enteros de candidatos que no
+ * superan el umbral con una sola comparacion.
+ * <p>
+ * Necesita {@code --add-modules jdk.incubator.vector} para compilar y ejecutar;
+ * Acumulador solo la carga si el modulo esta disponible.
+ */
+class AcumuladorVectorial extends Acumulador {
+    private static final VectorSpecies<Float> ESPECIE = FloatVector.SPECIES_PREFERRED;
+
+    AcumuladorVectorial(int numDocumentos) {
+        super(numDocumentos);
+    }
+
+    // Los docID de un bloque no se repiten, asi que el scatter no pisa ninguna suma
+    @Override
+    protected void sumarBloque(int[] docs, float[] puntuacion, int desde, int hasta) {
+        int i = desde;
+        int limite = desde + ESPECIE.loopBound(hasta - desde);
+        for (; i < limite; i += ESPECIE.length()) {
+            FloatVector.fromArray(ESPECIE, puntuaciones, 0, docs, i)
+                    .add(FloatVector.fromArray(ESPECIE, puntuacion, i))
+                    .intoArray(puntuaciones, 0, docs, i);
+        }
+        super.sumarBloque(docs, puntuacion, i, hasta);
+    }
+
+    @Override
+    protected int siguienteMayor(int[] candidatos, int desde, float umbral) {
+        int i = desde;
+        int limite = desde + ESPECIE.loopBound(candidatos.length - desde);
+        for (; i < limite; i += ESPECIE.length()) {
+            VectorMask<Float> mayores = FloatVector.fromArray(ESPECIE, puntuaciones, 0, candidatos, i)
+                    .compare(VectorOperators.GT, umbral);
+            if (mayores.anyTrue())
+                return i + mayores.firstTrue();
+        }
+        return super.siguienteMayor(candidatos, i, umbral);
+    }
+}
@@ -0,0 +1,160 @@
+package utility;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import jdk.incubator.foreign.MemoryAccess;
+import jdk.incubator.foreign.MemorySegment;
+import jdk.incubator.foreign.ResourceScope;
+
+/**
+ * Postings en memoria nativa. Todos los terminos van seguidos en dos segmentos,
+ * uno con los docID (int) y otro con el peso por IDF (float); otro segmento con
+ * el inicio de cada termino (long, numTerminos + 1) y otro con el IDF (double).
+ * El diccionario se proyecta del fichero directamente.
+ * <p>
+ * Todos los segmentos son del mismo ResourceScope compartido: se liberan juntos
+ * en {@link #close()}, y cualquier acceso posterior falla en vez de leer memoria
+ * liberada. Los accesos comprueban los limites del termino y del segmento y no
+ * crean objetos.
+ */
+class AlmacenFueraHeap extends AlmacenPostings {
+    // Postings que se suman de una vez desde el segmento
+    private static final int BLOQUE = 512;
+
+    private static final class Bloque {
+        final int[] docs = new int[BLOQUE];
+        final float[] puntuaciones = new float[BLOQUE];
+        final MemorySegment segmentoDocs = MemorySegment.ofArray(docs);
+        final MemorySegment segmentoPuntuaciones = MemorySegment.ofArray(puntuaciones);
+    }
+
+    private static final ThreadLocal<Bloque> bloques = ThreadLocal.withInitial(Bloque::new);
+
+    private final ResourceScope scope = ResourceScope.newSharedScope();
+    private MemorySegment inicios;
+    private MemorySegment idfs;
+    private MemorySegment docs;
+    private MemorySegment puntuaciones;
+    private int numTerminos = 0;
+    private long numPostings = 0;
+
+    @Override
+    ByteBuffer leer(Path fichero) throws IOException {
+        return MemorySegment.mapFile(fichero, 0, Files.size(fichero), FileChannel.MapMode.READ_ONLY, scope)
+                .asByteBuffer();
+    }
+
+    @Override
+    boolean necesitaTamanos() {
+        return true;
+    }
+
+    @Override
+    void reservar(int terminos, long postings) {
+        inicios = MemorySegment.allocateNative(8L * (terminos + 1), 8, scope);
+        idfs = MemorySegment.allocateNative(8L * Math.max(terminos, 1), 8, scope);
+        docs = MemorySegment.allocateNative(4L * Math.max(postings, 1), 8, scope);
+        puntuaciones = MemorySegment.allocateNative(4L * Math.max(postings, 1), 8, scope);
+    }
+
+    @Override
+    void anadir(double idf, ListaPostings postings) {
+        MemoryAccess.setDoubleAtIndex(idfs, numTerminos, idf);
+        MemoryAccess.setLongAtIndex(inicios, numTerminos, numPostings);
+        for (int i = 0; i < postings.size; i++) {
+            MemoryAccess.setIntAtIndex(docs, numPostings + i, postings.docs[i]);
+            MemoryAccess.setFloatAtIndex(puntuaciones, numPostings + i, (float) (postings.pesos[i] * idf));
+        }
+        numPostings += postings.size;
+        numTerminos++;
+        MemoryAccess.setLongAtIndex(inicios, numTerminos, numPostings);
+    }
+
+    @Override
+    public int numTerminos() {
+        return numTerminos;
+    }
+
+    @Override
+    public double idf(int termino) {
+        comprobarTermino(termino);
+        return MemoryAccess.getDoubleAtIndex(idfs, termino);
+    }
+
+    @Override
+    public int df(int termino) {
+        comprobarTermino(termino);
+        return Math.toIntExact(MemoryAccess.getLongAtIndex(inicios, termino + 1) - MemoryAccess.getLongAtIndex(inicios, termino));
+    }
+
+    @Override
+    public int doc(int termino, int i) {
+        return MemoryAccess.getIntAtIndex(docs, posicion(termino, i));
+    }
+
+    @Override
+    public float puntuacion(int termino, int i) {
+        return MemoryAccess.getFloatAtIndex(puntuaciones, posicion(termino, i));
+    }
+
+    // Los postings se leen del segmento directamente, sin copiar la lista
+    @Override
+    public Cursor cursor(int termino) {
+        int df = df(termino);
+        long inicio = MemoryAccess.getLongAtIndex(inicios, termino);
+        return new Cursor(df) {
+            @Override
+            protected int docEn(int i) {
+                return MemoryAccess.getIntAtIndex(docs, inicio + i);
+            }
+
+            @Override
+            protected float puntuacionEn(int i) {
+                return MemoryAccess.getFloatAtIndex(puntuaciones, inicio + i);
+            }
+        };
+    }
+
+    // Los postings pasan por bloques de arrays de cada hilo, que se reutilizan, y cada
+    // bloque se suma de una vez (con SIMD si el acumulador es vectorial)
+    @Override
+    public void sumar(int termino, Acumulador acumulador) {
+        int n = df(termino);
+        long inicio = MemoryAccess.getLongAtIndex(inicios, termino);
+        Bloque bloque = bloques.get();
+        for (int hechos = 0; hechos < n; hechos += BLOQUE) {
+            int m = Math.min(BLOQUE, n - hechos);
+            long desde = 4 * (inicio + hechos);
+            bloque.segmentoDocs.copyFrom(docs.asSlice(desde, 4L * m));
+            bloque.segmentoPuntuaciones.copyFrom(puntuaciones.asSlice(desde, 4L * m));
+            acumulador.sumarCopia(bloque.docs, bloque.puntuaciones, m);
+        }
+    }
+
+    @Override
+    public long bytes() {
+        return 8L * numPostings + 16L * numTerminos;
+    }
+
+    @Override
+    public void close() {
+        scope.close();
+    }
+
+    // Posicion en los segmentos del posting i del termino
+    private long posicion(int termino, int i) {
+        long inicio = MemoryAccess.getLongAtIndex(inicios, termino);
+        if (i < 0 || i >= MemoryAccess.getLongAtIndex(inicios, termino + 1) - inicio)
+            throw new IndexOutOfBoundsException("Posting " + i + " fuera del termino " + termino);
+        return inicio + i;
+    }
+
+    private void comprobarTermino(int termino) {
+        if (termino < 0 || termino >= numTerminos)
+            throw new IndexOutOfBoundsException("termID " + termino + " fuera del indice");
+    }
+}
@@ -0,0 +1,107 @@
+package utility;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Postings en arrays de Java: por cada termID su IDF, los docID de sus postings y
+ * el peso por IDF de cada posting en float. Los pesos en double de la
+ * {@link ListaPostings} solo se usan para calcular las puntuaciones y no se
+ * guardan.
+ */
+class AlmacenHeap extends AlmacenPostings {
+    private final List<Double> idfs = new ArrayList<>();
+    private final List<int[]> docs = new ArrayList<>();
+    private final List<float[]> puntuaciones = new ArrayList<>();
+    private long bytes = 0;
+
+    @Override
+    ByteBuffer leer(Path fichero) throws IOException {
+        return ByteBuffer.wrap(Files.readAllBytes(fichero));
+    }
+
+    @Override
+    boolean necesitaTamanos() {
+        return false;
+    }
+
+    @Override
+    void reservar(int numTerminos, long numPostings) {
+    }
+
+    @Override
+    void anadir(double idf, ListaPostings postings) {
+        idfs.add(idf);
+        docs.add(Arrays.copyOf(postings.docs, postings.size));
+        float[] puntuacion = new float[postings.size];
+        for (int i = 0; i < postings.size; i++)
+            puntuacion[i] = (float) (postings.pesos[i] * idf);
+        puntuaciones.add(puntuacion);
+        bytes += 8L * postings.size;
+    }
+
+    @Override
+    public int numTerminos() {
+        return docs.size();
+    }
+
+    @Override
+    public double idf(int termino) {
+        return idfs.get(termino);
+    }
+
+    @Override
+    public int df(int termino) {
+        return docs.get(termino).length;
+    }
+
+    @Override
+    public int doc(int termino, int i) {
+        return docs.get(termino)[i];
+    }
+
+    @Override
+    public float puntuacion(int termino, int i) {
+        return puntuaciones.get(termino)[i];
+    }
+
+    @Override
+    public Cursor cursor(int termino) {
+        int[] docsTermino = docs.get(termino);
+        float[] puntuacion = puntuaciones.get(termino);
+        return new Cursor(docsTermino.length) {
+            @Override
+            protected int docEn(int i) {
+                return docsTermino[i];
+            }
+
+            @Override
+            protected float puntuacionEn(int i) {
+                return puntuacion[i];
+            }
+        };
+    }
+
+    @Override
+    public void sumar(int termino, Acumulador acumulador) {
+        int[] docsTermino = docs.get(termino);
+        acumulador.sumar(docsTermino, puntuaciones.get(termino), docsTermino.length);
+    }
+
+    @Override
+    public long bytes() {
+        return bytes;
+    }
+
+    @Override
+    public void close() {
+        idfs.clear();
+        docs.clear();
+        puntuaciones.clear();
+    }
+}
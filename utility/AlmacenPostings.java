@@ -0,0 +1,164 @@
+package utility;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+/**
+ * Donde guarda una generacion del indice sus postings (y los datos del
+ * diccionario). Hay dos versiones:
+ * <ul>
+ * <li>{@link AlmacenHeap}: arrays de Java, la de siempre.</li>
+ * <li>{@code AlmacenFueraHeap}: segmentos de memoria nativa con la API de memoria
+ * externa. El recolector no tiene que recorrerlos, asi que el heap del buscador
+ * no crece con el indice. Necesita {@code --add-modules jdk.incubator.foreign}
+ * y se carga solo si el modulo esta disponible.</li>
+ * </ul>
+ * El indice carga los terminos en orden de termID con {@link #anadir} y cierra el
+ * almacen cuando ninguna consulta usa ya la generacion. Despues de cerrarlo no se
+ * puede leer nada.
+ */
+public abstract class AlmacenPostings implements Closeable {
+    private static final boolean FUERA_HEAP = ModuleLayer.boot().findModule("jdk.incubator.foreign").isPresent();
+
+    public static AlmacenPostings enHeap() {
+        return new AlmacenHeap();
+    }
+
+    // Almacen fuera del heap, o null si la JVM no tiene el modulo o falta la clase
+    public static AlmacenPostings fueraDelHeap() {
+        if (FUERA_HEAP) {
+            try {
+                return (AlmacenPostings) Class.forName("utility.AlmacenFueraHeap").getDeclaredConstructor()
+                        .newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                // Sin la clase compilada no se puede
+            }
+        }
+        return null;
+    }
+
+    // Contenido de un fichero del indice, por ejemplo el diccionario
+    abstract ByteBuffer leer(Path fichero) throws IOException;
+
+    // Si hay que llamar a reservar antes de anadir
+    abstract boolean necesitaTamanos();
+
+    abstract void reservar(int numTerminos, long numPostings);
+
+    // Anade el siguiente termID. Los postings tienen que estar ordenados por docID
+    abstract void anadir(double idf, ListaPostings postings);
+
+    public abstract int numTerminos();
+
+    public abstract double idf(int termino);
+
+    // Numero de documentos del termino
+    public abstract int df(int termino);
+
+    // docID del posting i del termino
+    public abstract int doc(int termino, int i);
+
+    // Peso por IDF del posting i del termino
+    public abstract float puntuacion(int termino, int i);
+
+    // Recorrido de los postings del termino sin copiarlos
+    public abstract Cursor cursor(int termino);
+
+    // docID de todos los postings del termino en un array nuevo. Copia la lista
+    // entera: para recorrerla o intersecarla, cursor()
+    public int[] docs(int termino) {
+        Cursor cursor = cursor(termino);
+        int[] resultado = new int[cursor.df()];
+        for (int i = 0; i < resultado.length; i++, cursor.siguiente())
+            resultado[i] = cursor.doc();
+        return resultado;
+    }
+
+    // Suma la puntuacion de todos los postings del termino
+    public abstract void sumar(int termino, Acumulador acumulador);
+
+    // Bytes que ocupan los postings
+    public abstract long bytes();
+
+    @Override
+    public void close() {
+    }
+
+    /**
+     * Recorrido de la lista de postings de un termino en orden de docID, leyendo
+     * directamente del almacen. Empieza en el primer posting; cuando se acaba la
+     * lista, doc() devuelve FIN.
+     */
+    public abstract static class Cursor {
+        public static final int FIN = Integer.MAX_VALUE;
+
+        private final int df;
+        private int pos = 0;
+
+        protected Cursor(int df) {
+            this.df = df;
+        }
+
+        protected abstract int docEn(int i);
+
+        protected abstract float puntuacionEn(int i);
+
+        public int df() {
+            return df;
+        }
+
+        public int doc() {
+            return pos < df ? docEn(pos) : FIN;
+        }
+
+        // Peso por IDF del posting actual
+        public float puntuacion() {
+            return puntuacionEn(pos);
+        }
+
+        public void siguiente() {
+            if (pos < df)
+                pos++;
+        }
+
+        // Avanza hasta el primer documento mayor o igual que objetivo, nunca hacia
+        // atras. Con busqueda exponencial, saltarse muchos postings cuesta poco.
+        // Devuelve true si el termino esta en objetivo
+        public boolean avanzarA(int objetivo) {
+            if (pos >= df || docEn(pos) >= objetivo)
+                return pos < df && docEn(pos) == objetivo;
+            int bajo = pos, salto = 1;
+            while (bajo + salto < df && docEn(bajo + salto) < objetivo) {
+                bajo += salto;
+                salto <<= 1;
+            }
+            // docEn(bajo) < objetivo y en alto ya se ha llegado (o es el final)
+            int alto = Math.min(bajo + salto, df);
+            bajo++;
+            while (bajo < alto) {
+                int medio = (bajo + alto) >>> 1;
+                if (docEn(medio) < objetivo)
+                    bajo = medio + 1;
+                else
+                    alto = medio;
+            }
+            pos = bajo;
+            return pos < df && docEn(pos) == objetivo;
+        }
+    }
+
+    // Cursor de un termino sin postings
+    static final Cursor VACIO = new Cursor(0) {
+        @Override
+        protected int docEn(int i) {
+            throw new IndexOutOfBoundsException("Cursor vacio");
+        }
+
+        @Override
+        protected float puntuacionEn(int i) {
+            throw new IndexOutOfBoundsException("Cursor vacio");
+        }
+    };
+}
@@ -0,0 +1,171 @@
+package utility;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Sugerencias de palabras para un prefijo (utility/autocompletado.dat).
+ * <p>
+ * Las palabras van en un {@link TrieCompacto}, como en {@link FiltroStopwords}, y
+ * cada nodo guarda ya calculadas sus MAX_SUGERENCIAS mejores palabras (las de
+ * mayor peso, normalmente el df de su stem). Completar un prefijo es bajar por
+ * el trie y copiar la lista del nodo: no se recorre el diccionario ni se toca
+ * ninguna lista de postings.
+ * <p>
+ * Las palabras pueden ser las formas que aparecen en los documentos; en ese caso
+ * dos formas con el mismo stem ("protein" y "proteins") no salen a la vez en las
+ * sugerencias, solo la mas frecuente.
+ * <p>
+ * Formato: numPalabras, y por cada una la palabra (writeUTF) y su peso;
+ * numNodos, etiquetas (char, numNodos - 1), primer hijo y numero de hijos de
+ * cada nodo, inicio de la lista de cada nodo (numNodos + 1) y las listas.
+ */
+public class Autocompletado {
+    public static final int MAX_SUGERENCIAS = 10;
+
+    private final String[] palabras;
+    private final TrieCompacto trie;
+    private final int[] inicioMejores;
+    private final int[] mejores;
+
+    private Autocompletado(String[] palabras, TrieCompacto trie, int[] inicioMejores, int[] mejores) {
+        this.palabras = palabras;
+        this.trie = trie;
+        this.inicioMejores = inicioMejores;
+        this.mejores = mejores;
+    }
+
+    /**
+     * Las mejores palabras (como mucho max) que empiezan por el prefijo, de mayor a
+     * menor peso. Cada nodo solo guarda MAX_SUGERENCIAS, asi que pedir mas es un error.
+     */
+    public List<String> completar(String prefijo, int max) {
+        if (max > MAX_SUGERENCIAS)
+            throw new IllegalArgumentException("Se piden " + max + " sugerencias y el indice solo guarda "
+                    + MAX_SUGERENCIAS + " por prefijo");
+        List<String> resultado = new ArrayList<>();
+        int nodo = trie.bajar(prefijo);
+        if (nodo < 0)
+            return resultado;
+        for (int i = inicioMejores[nodo]; i < inicioMejores[nodo + 1] && resultado.size() < max; i++)
+            resultado.add(palabras[mejores[i]]);
+        return resultado;
+    }
+
+    public int size() {
+        return palabras.length;
+    }
+
+    // Devuelve null si el indice no tiene sugerencias
+    public static Autocompletado cargar(String fichero) throws IOException {
+        if (!Files.exists(Paths.get(fichero)))
+            return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(fichero)))) {
+            int numPalabras = in.readInt();
+            String[] palabras = new String[numPalabras];
+            for (int i = 0; i < numPalabras; i++) {
+                palabras[i] = in.readUTF();
+                // El peso solo hace falta para construir las listas
+                in.readLong();
+            }
+            int numNodos = in.readInt();
+            char[] etiquetas = new char[numNodos - 1];
+            for (int i = 0; i < etiquetas.length; i++)
+                etiquetas[i] = in.readChar();
+            int[] primerHijo = leerInts(in, numNodos);
+            int[] numHijos = leerInts(in, numNodos);
+            int[] inicioMejores = leerInts(in, numNodos + 1);
+            int[] mejores = leerInts(in, inicioMejores[numNodos]);
+            return new Autocompletado(palabras, new TrieCompacto(primerHijo, numHijos, etiquetas), inicioMejores,
+                    mejores);
+        }
+    }
+
+    private static int[] leerInts(DataInputStream in, int n) throws IOException {
+        int[] valores = new int[n];
+        for (int i = 0; i < n; i++)
+            valores[i] = in.readInt();
+        return valores;
+    }
+
+    /**
+     * Construye el fichero. Cada palabra tiene un peso (mayor es mejor) y el termID
+     * de su stem; las que comparten stem no se sugieren juntas.
+     */
+    public static void guardar(Map<String, Tupla<Long, Integer>> pesoYStem, String fichero) throws IOException {
+        // El trie se construye con las palabras ordenadas
+        TreeMap<String, Tupla<Long, Integer>> ordenadas = new TreeMap<>(pesoYStem);
+        ordenadas.remove("");
+        String[] palabras = ordenadas.keySet().toArray(new String[0]);
+        long[] pesos = new long[palabras.length];
+        int[] stems = new int[palabras.length];
+        for (int i = 0; i < palabras.length; i++) {
+            pesos[i] = ordenadas.get(palabras[i]).first;
+            stems[i] = ordenadas.get(palabras[i]).second;
+        }
+
+        TrieCompacto trie = TrieCompacto.construir(Arrays.asList(palabras));
+
+        // Mejores de cada nodo, de abajo arriba: los de sus hijos mas la palabra que
+        // acaba en el
+        int numNodos = trie.numNodos();
+        int[][] mejoresNodo = new int[numNodos][];
+        Integer[] candidatos = new Integer[0];
+        for (int n = numNodos - 1; n >= 0; n--) {
+            List<Integer> lista = new ArrayList<>();
+            if (trie.palabra[n] >= 0)
+                lista.add(trie.palabra[n]);
+            for (int h = 0; h < trie.numHijos[n]; h++)
+                for (int p : mejoresNodo[trie.primerHijo[n] + h + 1])
+                    lista.add(p);
+            candidatos = lista.toArray(candidatos);
+            Arrays.sort(candidatos, 0, lista.size(), (a, b) -> pesos[a] != pesos[b] ? Long.compare(pesos[b], pesos[a])
+                    : palabras[a].compareTo(palabras[b]));
+            int[] seleccion = new int[Math.min(MAX_SUGERENCIAS, lista.size())];
+            int numSeleccion = 0;
+            Set<Integer> stemsUsados = new HashSet<>();
+            for (int i = 0; i < lista.size() && numSeleccion < seleccion.length; i++)
+                if (stemsUsados.add(stems[candidatos[i]]))
+                    seleccion[numSeleccion++] = candidatos[i];
+            mejoresNodo[n] = Arrays.copyOf(seleccion, numSeleccion);
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fichero)))) {
+            out.writeInt(palabras.length);
+            for (int i = 0; i < palabras.length; i++) {
+                out.writeUTF(palabras[i]);
+                out.writeLong(pesos[i]);
+            }
+            out.writeInt(numNodos);
+            for (char c : trie.etiquetas)
+                out.writeChar(c);
+            for (int n = 0; n < numNodos; n++)
+                out.writeInt(trie.primerHijo[n]);
+            for (int n = 0; n < numNodos; n++)
+                out.writeInt(trie.numHijos[n]);
+            int inicio = 0;
+            for (int n = 0; n < numNodos; n++) {
+                out.writeInt(inicio);
+                inicio += mejoresNodo[n].length;
+            }
+            out.writeInt(inicio);
+            for (int n = 0; n < numNodos; n++)
+                for (int p : mejoresNodo[n])
+                    out.writeInt(p);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package utility;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Cache de intersecciones de pares de terminos frecuentes de una generacion del
+ * indice.
+ * <p>
+ * Cada entrada guarda los documentos que tienen los dos terminos y la puntuacion
+ * de cada termino en esos documentos, asi que una consulta AND que empieza por el
+ * par no tiene que volver a intersecar las dos listas ni sumar sus postings
+ * enteros. Es distinta de cachear consultas completas: la aprovecha cualquier
+ * consulta que contenga el par.
+ * <p>
+ * Un par solo entra si se ha pedido al menos FRECUENCIA_MINIMA veces y su lista
+ * mas corta tiene al menos LONGITUD_MINIMA documentos (con listas cortas la
+ * interseccion ya es barata). Las entradas se expulsan por LRU cuando se pasa del
+ * presupuesto de memoria. Se puede usar desde varios hilos.
+ */
+public class CacheIntersecciones {
+    static final int FRECUENCIA_MINIMA = 3;
+    static final int LONGITUD_MINIMA = 256;
+    // Pares distintos que se cuentan antes de envejecer los contadores
+    private static final int MAX_CONTADORES = 1 << 16;
+    // Bytes aproximados de una entrada vacia (objetos, arrays y nodo del mapa)
+    private static final int BYTES_ENTRADA = 128;
+
+    /**
+     * Documentos comunes de dos terminos, ordenados por docID, con la puntuacion de
+     * cada termino en cada documento. Los arrays no se deben modificar.
+     */
+    public static final class Interseccion {
+        public final int terminoA, terminoB;
+        public final int[] docs;
+        public final float[] puntuacionA, puntuacionB;
+
+        Interseccion(int terminoA, int terminoB, int[] docs, float[] puntuacionA, float[] puntuacionB) {
+            this.terminoA = terminoA;
+            this.terminoB = terminoB;
+            this.docs = docs;
+            this.puntuacionA = puntuacionA;
+            this.puntuacionB = puntuacionB;
+        }
+
+        long bytes() {
+            return BYTES_ENTRADA + 12L * docs.length;
+        }
+    }
+
+    private final AlmacenPostings postings;
+    private final long presupuesto;
+    private long ocupados = 0;
+    // En orden de acceso: la primera es la que lleva mas tiempo sin usarse
+    private final LinkedHashMap<Long, Interseccion> entradas = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Long, Integer> contadores = new HashMap<>();
+    private long aciertos = 0, fallos = 0, admitidas = 0, expulsadas = 0;
+
+    public CacheIntersecciones(AlmacenPostings postings, long presupuesto) {
+        this.postings = postings;
+        this.presupuesto = presupuesto;
+    }
+
+    // Interseccion de los dos terminos si esta en la cache o si el par acaba de
+    // ganarse la entrada; null si la consulta la tiene que calcular por su cuenta
+    public Interseccion obtener(int a, int b) {
+        if (a > b) {
+            int aux = a;
+            a = b;
+            b = aux;
+        }
+        long clave = ((long) a << 32) | b;
+        synchronized (this) {
+            Interseccion interseccion = entradas.get(clave);
+            if (interseccion != null) {
+                aciertos++;
+                return interseccion;
+            }
+            fallos++;
+            if (contar(clave) < FRECUENCIA_MINIMA || Math.min(postings.df(a), postings.df(b)) < LONGITUD_MINIMA)
+                return null;
+        }
+        // Fuera del cerrojo para no parar a las demas consultas. Si dos hilos calculan
+        // el mismo par a la vez se queda la ultima
+        Interseccion interseccion = intersecar(a, b);
+        if (interseccion.bytes() > presupuesto / 8)
+            return interseccion;
+        synchronized (this) {
+            Interseccion anterior = entradas.put(clave, interseccion);
+            if (anterior != null)
+                ocupados -= anterior.bytes();
+            else
+                admitidas++;
+            ocupados += interseccion.bytes();
+            contadores.remove(clave);
+            Iterator<Interseccion> lru = entradas.values().iterator();
+            while (ocupados > presupuesto && lru.hasNext()) {
+                ocupados -= lru.next().bytes();
+                lru.remove();
+                expulsadas++;
+            }
+        }
+        return interseccion;
+    }
+
+    // Suma una peticion del par y devuelve cuantas lleva. Cuando hay demasiados pares
+    // se dividen todos los contadores entre dos, asi los pares que ya no se piden
+    // acaban desapareciendo
+    private int contar(long clave) {
+        if (contadores.size() >= MAX_CONTADORES) {
+            contadores.replaceAll((k, v) -> v / 2);
+            contadores.values().removeIf(v -> v == 0);
+        }
+        return contadores.merge(clave, 1, Integer::sum);
+    }
+
+    // Se recorre la lista corta y se salta en la larga con su cursor
+    private Interseccion intersecar(int a, int b) {
+        boolean invertido = postings.df(a) > postings.df(b);
+        AlmacenPostings.Cursor corto = postings.cursor(invertido ? b : a);
+        AlmacenPostings.Cursor largo = postings.cursor(invertido ? a : b);
+        int[] docs = new int[corto.df()];
+        float[] puntuacionCorto = new float[corto.df()];
+        float[] puntuacionLargo = new float[corto.df()];
+        int n = 0;
+        for (int doc = corto.doc(); doc != AlmacenPostings.Cursor.FIN; corto.siguiente(), doc = corto.doc()) {
+            if (largo.avanzarA(doc)) {
+                docs[n] = doc;
+                puntuacionCorto[n] = corto.puntuacion();
+                puntuacionLargo[n] = largo.puntuacion();
+                n++;
+            } else if (largo.doc() == AlmacenPostings.Cursor.FIN) {
+                break;
+            }
+        }
+        docs = Arrays.copyOf(docs, n);
+        puntuacionCorto = Arrays.copyOf(puntuacionCorto, n);
+        puntuacionLargo = Arrays.copyOf(puntuacionLargo, n);
+        return invertido ? new Interseccion(a, b, docs, puntuacionLargo, puntuacionCorto)
+                : new Interseccion(a, b, docs, puntuacionCorto, puntuacionLargo);
+    }
+
+    // Libera las entradas; se llama al cerrar la generacion
+    public synchronized void vaciar() {
+        entradas.clear();
+        contadores.clear();
+        ocupados = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.ROOT,
+                "%d aciertos, %d fallos, %d pares (%.1f MB), %d admitidos, %d expulsados",
+                aciertos, fallos, entradas.size(), ocupados / 1048576.0, admitidas, expulsadas);
+    }
+}
@@ -0,0 +1,295 @@
+package utility;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Arbol de una consulta booleana.
+ * <p>
+ * Gramatica (los operadores no distinguen mayusculas):
+ * <pre>
+ *   o      := y ( [OR] y )*        dos terminos seguidos sin operador son un OR
+ *   y      := unario ( AND unario )*
+ *   unario := NOT unario | '(' o ')' | palabra | prefijo* | "frase" | "frase"~N
+ * </pre>
+ * Una frase exige que sus terminos aparezcan seguidos y en orden. Con ~N basta
+ * con que aparezcan todos, en cualquier orden, a N posiciones o menos entre el
+ * primero y el ultimo.
+ * Cada palabra se preprocesa y se le aplica stemming una sola vez al parsear.
+ * Los operadores se reconocen como palabras completas, asi que terminos como
+ * "brand" o "major" no cambian el tipo de consulta.
+ */
+public abstract class Consulta {
+
+    public static class Termino extends Consulta {
+        public final String termino;
+
+        Termino(String termino) {
+            this.termino = termino;
+        }
+
+        @Override
+        public String toString() {
+            return termino;
+        }
+    }
+
+    // Todos los terminos del diccionario que empiezan por el prefijo (sin stemming)
+    public static class Prefijo extends Consulta {
+        public final String prefijo;
+
+        Prefijo(String prefijo) {
+            this.prefijo = prefijo;
+        }
+
+        @Override
+        public String toString() {
+            return prefijo + "*";
+        }
+    }
+
+    public static class Frase extends Consulta {
+        public final List<String> terminos;
+        // 0 para una frase exacta
+        public final int distancia;
+
+        Frase(List<String> terminos, int distancia) {
+            this.terminos = terminos;
+            this.distancia = distancia;
+        }
+
+        @Override
+        public String toString() {
+            return "\"" + String.join(" ", terminos) + "\"" + (distancia > 0 ? "~" + distancia : "");
+        }
+    }
+
+    public static class Y extends Consulta {
+        public final List<Consulta> hijos;
+
+        Y(List<Consulta> hijos) {
+            this.hijos = hijos;
+        }
+
+        @Override
+        public String toString() {
+            return "(" + String.join(" AND ", hijos.stream().map(Object::toString).toList()) + ")";
+        }
+    }
+
+    public static class O extends Consulta {
+        public final List<Consulta> hijos;
+
+        O(List<Consulta> hijos) {
+            this.hijos = hijos;
+        }
+
+        @Override
+        public String toString() {
+            return "(" + String.join(" OR ", hijos.stream().map(Object::toString).toList()) + ")";
+        }
+    }
+
+    public static class No extends Consulta {
+        public final Consulta hijo;
+
+        No(Consulta hijo) {
+            this.hijo = hijo;
+        }
+
+        @Override
+        public String toString() {
+            return "NOT " + hijo;
+        }
+    }
+
+    // Parsea la consulta. Devuelve null si no queda ningun termino (por ejemplo si
+    // todo son stopwords)
+    public static Consulta parsear(String texto) {
+        return new Parser(texto).parsear();
+    }
+
+    private static class Parser {
+        private final List<String> tokens = new ArrayList<>();
+        private final Stemmer stemmer = new Stemmer();
+        private int pos = 0;
+
+        Parser(String texto) {
+            // Separo parentesis, frases y palabras; el resto de signos los quita el
+            // preprocesado. Una frase se guarda como un token entre comillas
+            StringBuilder actual = new StringBuilder();
+            for (int i = 0; i < texto.length(); i++) {
+                char c = texto.charAt(i);
+                if (c == '"') {
+                    if (actual.length() > 0) {
+                        tokens.add(actual.toString());
+                        actual.setLength(0);
+                    }
+                    int fin = texto.indexOf('"', i + 1);
+                    if (fin < 0)
+                        fin = texto.length();
+                    actual.append('"').append(texto, i + 1, fin).append('"');
+                    i = fin;
+                    // Distancia opcional: "frase"~N
+                    if (i + 1 < texto.length() && texto.charAt(i + 1) == '~') {
+                        int j = i + 2;
+                        while (j < texto.length() && Character.isDigit(texto.charAt(j)))
+                            j++;
+                        actual.append(texto, i + 1, j);
+                        i = j - 1;
+                    }
+                    tokens.add(actual.toString());
+                    actual.setLength(0);
+                } else if (c == '(' || c == ')' || Character.isWhitespace(c)) {
+                    if (actual.length() > 0) {
+                        tokens.add(actual.toString());
+                        actual.setLength(0);
+                    }
+                    if (!Character.isWhitespace(c))
+                        tokens.add(String.valueOf(c));
+                } else {
+                    actual.append(c);
+                }
+            }
+            if (actual.length() > 0)
+                tokens.add(actual.toString());
+        }
+
+        Consulta parsear() {
+            Consulta consulta = o();
+            // Los parentesis de cierre sobrantes se ignoran
+            while (pos < tokens.size()) {
+                pos++;
+                Consulta resto = o();
+                consulta = unir(consulta, resto, false);
+            }
+            return consulta;
+        }
+
+        private Consulta o() {
+            List<Consulta> hijos = new ArrayList<>();
+            Consulta primero = y();
+            if (primero != null)
+                hijos.add(primero);
+            while (pos < tokens.size() && !tokens.get(pos).equals(")")) {
+                if (esOperador("or"))
+                    pos++;
+                Consulta siguiente = y();
+                if (siguiente != null)
+                    hijos.add(siguiente);
+            }
+            return simplificar(hijos, false);
+        }
+
+        private Consulta y() {
+            List<Consulta> hijos = new ArrayList<>();
+            Consulta primero = unario();
+            if (primero != null)
+                hijos.add(primero);
+            while (esOperador("and")) {
+                pos++;
+                Consulta siguiente = unario();
+                if (siguiente != null)
+                    hijos.add(siguiente);
+            }
+            return simplificar(hijos, true);
+        }
+
+        private Consulta unario() {
+            if (pos >= tokens.size())
+                return null;
+            String token = tokens.get(pos);
+            if (esOperador("not")) {
+                pos++;
+                Consulta hijo = unario();
+                return hijo == null ? null : new No(hijo);
+            }
+            if (token.equals("(")) {
+                pos++;
+                Consulta dentro = o();
+                if (pos < tokens.size() && tokens.get(pos).equals(")"))
+                    pos++;
+                return dentro;
+            }
+            if (token.equals(")"))
+                return null;
+            pos++;
+            // Un operador en una posicion donde no tiene sentido se ignora
+            if (token.equalsIgnoreCase("and") || token.equalsIgnoreCase("or"))
+                return null;
+            if (token.startsWith("\""))
+                return frase(token);
+            return palabra(token);
+        }
+
+        // Numero que empieza en desde; 0 si no hay digitos y, si no cabe en un int, el
+        // maximo (una ventana tan grande ya es todo el documento)
+        private int leerDistancia(String token, int desde) {
+            long distancia = 0;
+            for (int i = desde; i < token.length() && Character.isDigit(token.charAt(i)); i++) {
+                distancia = Math.min(Integer.MAX_VALUE, distancia * 10 + Character.digit(token.charAt(i), 10));
+            }
+            return (int) distancia;
+        }
+
+        private Consulta frase(String token) {
+            int cierre = token.lastIndexOf('"');
+            int distancia = 0;
+            if (cierre + 1 < token.length() && token.charAt(cierre + 1) == '~')
+                distancia = leerDistancia(token, cierre + 2);
+            List<String> terminos = new ArrayList<>();
+            for (String parte : preprocesado.procesar(token.substring(1, Math.max(1, cierre))).split("\\s+")) {
+                if (parte.isEmpty())
+                    continue;
+                stemmer.add(parte.toCharArray(), parte.length());
+                stemmer.stem();
+                terminos.add(stemmer.toString());
+            }
+            if (terminos.isEmpty())
+                return null;
+            if (terminos.size() == 1)
+                return new Termino(terminos.get(0));
+            return new Frase(terminos, distancia);
+        }
+
+        // Normaliza y aplica stemming a una palabra. Si el preprocesado la divide en
+        // varias (por ejemplo "fc/alpha") se exigen todas
+        private Consulta palabra(String token) {
+            if (token.endsWith("*") && token.length() > 1) {
+                String prefijo = preprocesado.procesar(token.substring(0, token.length() - 1)).trim();
+                if (!prefijo.isEmpty() && prefijo.indexOf(' ') < 0)
+                    return new Prefijo(prefijo);
+            }
+            List<Consulta> terminos = new ArrayList<>();
+            for (String parte : preprocesado.procesar(token).split("\\s+")) {
+                if (parte.isEmpty())
+                    continue;
+                stemmer.add(parte.toCharArray(), parte.length());
+                stemmer.stem();
+                terminos.add(new Termino(stemmer.toString()));
+            }
+            return simplificar(terminos, true);
+        }
+
+        private boolean esOperador(String operador) {
+            return pos < tokens.size() && tokens.get(pos).equalsIgnoreCase(operador);
+        }
+
+        private static Consulta simplificar(List<Consulta> hijos, boolean y) {
+            if (hijos.isEmpty())
+                return null;
+            if (hijos.size() == 1)
+                return hijos.get(0);
+            return y ? new Y(hijos) : new O(hijos);
+        }
+
+        private static Consulta unir(Consulta a, Consulta b, boolean y) {
+            List<Consulta> hijos = new ArrayList<>();
+            if (a != null)
+                hijos.add(a);
+            if (b != null)
+                hijos.add(b);
+            return simplificar(hijos, y);
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package utility;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Diccionario global de terminos (termino -> termID) guardado en disco como una
+ * lista ordenada con front coding por bloques.
+ * <p>
+ * Formato del fichero:
+ * numTerminos, tamBloque, numBloques, longitudMaxima, desplazamiento de cada
+ * bloque (int) y a continuacion los bloques. Dentro de un bloque el primer
+ * termino va completo y el resto solo guarda la longitud del prefijo que
+ * comparte con el anterior y el sufijo. Detras de cada termino va su termID.
+ * Todos los enteros de los bloques van en vbyte y los terminos en UTF-8.
+ * <p>
+ * La busqueda se hace con busqueda binaria sobre el primer termino de cada
+ * bloque y un recorrido lineal dentro del bloque, sin crear un String por
+ * termino.
+ */
+public class Diccionario {
+    // Numero de terminos por bloque
+    private static final int TAM_BLOQUE = 16;
+
+    private final ByteBuffer datos;
+    private final int numTerminos;
+    private final int tamBloque;
+    private final int numBloques;
+    private final int longitudMaxima;
+    // Posicion absoluta dentro de datos donde empiezan los bloques
+    private final int inicioBloques;
+
+    public Diccionario(ByteBuffer datos) {
+        this.datos = datos;
+        this.numTerminos = datos.getInt(0);
+        this.tamBloque = datos.getInt(4);
+        this.numBloques = datos.getInt(8);
+        this.longitudMaxima = datos.getInt(12);
+        this.inicioBloques = 16 + 4 * numBloques;
+    }
+
+    public static Diccionario cargar(String fichero) throws IOException {
+        return new Diccionario(ByteBuffer.wrap(Files.readAllBytes(Paths.get(fichero))));
+    }
+
+    public int size() {
+        return numTerminos;
+    }
+
+    // Devuelve el termID del termino o -1 si no esta en el diccionario
+    public int buscar(String termino) {
+        byte[] clave = termino.getBytes(StandardCharsets.UTF_8);
+        if (numBloques == 0 || clave.length > longitudMaxima)
+            return -1;
+        int bloque = buscarBloque(clave);
+        if (bloque < 0)
+            return -1;
+        byte[] actual = new byte[longitudMaxima];
+        int[] pos = { inicioBloque(bloque) };
+        int n = terminosEnBloque(bloque);
+        for (int i = 0; i < n; i++) {
+            int longitud = leerTermino(pos, actual, i == 0);
+            int id = leerVByte(pos);
+            int cmp = Arrays.compareUnsigned(actual, 0, longitud, clave, 0, clave.length);
+            if (cmp == 0)
+                return id;
+            // Los terminos estan ordenados, si ya nos hemos pasado no esta
+            if (cmp > 0)
+                return -1;
+        }
+        return -1;
+    }
+
+    // Devuelve los termID de todos los terminos que empiezan por el prefijo
+    public List<Integer> buscarPrefijo(String prefijo) {
+        List<Integer> ids = new ArrayList<>();
+        recorrerPrefijo(prefijo, (termino, id) -> ids.add(id));
+        return ids;
+    }
+
+    // Devuelve los terminos que empiezan por el prefijo
+    public List<String> terminosConPrefijo(String prefijo) {
+        List<String> terminos = new ArrayList<>();
+        recorrerPrefijo(prefijo, (termino, id) -> terminos.add(termino));
+        return terminos;
+    }
+
+    public interface Visitante {
+        void visitar(String termino, int id);
+    }
+
+    public void recorrerPrefijo(String prefijo, Visitante visitante) {
+        byte[] clave = prefijo.getBytes(StandardCharsets.UTF_8);
+        if (numBloques == 0)
+            return;
+        // El primer termino con el prefijo esta en el ultimo bloque cuya cabecera
+        // es menor que el prefijo (o en el primero)
+        int bloque = Math.max(buscarBloque(clave), 0);
+        byte[] actual = new byte[longitudMaxima];
+        for (; bloque < numBloques; bloque++) {
+            int[] pos = { inicioBloque(bloque) };
+            int n = terminosEnBloque(bloque);
+            for (int i = 0; i < n; i++) {
+                int longitud = leerTermino(pos, actual, i == 0);
+                int id = leerVByte(pos);
+                if (empiezaPor(actual, longitud, clave))
+                    visitante.visitar(new String(actual, 0, longitud, StandardCharsets.UTF_8), id);
+                else if (Arrays.compareUnsigned(actual, 0, longitud, clave, 0, clave.length) > 0)
+                    return;
+            }
+        }
+    }
+
+    // Busqueda binaria del ultimo bloque cuyo primer termino es <= clave.
+    // Devuelve -1 si la clave es menor que el primer termino del diccionario
+    private int buscarBloque(byte[] clave) {
+        int lo = 0, hi = numBloques - 1, resultado = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compararCabecera(mid, clave) <= 0) {
+                resultado = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return resultado;
+    }
+
+    // Compara el primer termino de un bloque con la clave sin copiarlo
+    private int compararCabecera(int bloque, byte[] clave) {
+        int[] pos = { inicioBloque(bloque) };
+        int longitud = leerVByte(pos);
+        int inicio = pos[0];
+        int n = Math.min(longitud, clave.length);
+        for (int i = 0; i < n; i++) {
+            int cmp = Integer.compare(datos.get(inicio + i) & 0xff, clave[i] & 0xff);
+            if (cmp != 0)
+                return cmp;
+        }
+        return Integer.compare(longitud, clave.length);
+    }
+
+    private int inicioBloque(int bloque) {
+        return inicioBloques + datos.getInt(16 + 4 * bloque);
+    }
+
+    private int terminosEnBloque(int bloque) {
+        return Math.min(tamBloque, numTerminos - bloque * tamBloque);
+    }
+
+    // Lee un termino del bloque sobre el buffer actual, que contiene el anterior
+    private int leerTermino(int[] pos, byte[] actual, boolean cabecera) {
+        int prefijo = cabecera ? 0 : leerVByte(pos);
+        int sufijo = leerVByte(pos);
+        for (int i = 0; i < sufijo; i++)
+            actual[prefijo + i] = datos.get(pos[0] + i);
+        pos[0] += sufijo;
+        return prefijo + sufijo;
+    }
+
+    private int leerVByte(int[] pos) {
+        int valor = 0, desplazamiento = 0;
+        byte b;
+        do {
+            b = datos.get(pos[0]++);
+            valor |= (b & 0x7f) << desplazamiento;
+            desplazamiento += 7;
+        } while ((b & 0x80) != 0);
+        return valor;
+    }
+
+    private static boolean empiezaPor(byte[] termino, int longitud, byte[] prefijo) {
+        if (longitud < prefijo.length)
+            return false;
+        for (int i = 0; i < prefijo.length; i++)
+            if (termino[i] != prefijo[i])
+                return false;
+        return true;
+    }
+
+    // Guarda el diccionario. La posicion de cada termino en la lista es su termID
+    public static void guardar(List<String> terminos, String fichero) throws IOException {
+        int numTerminos = terminos.size();
+        byte[][] claves = new byte[numTerminos][];
+        Integer[] orden = new Integer[numTerminos];
+        int longitudMaxima = 0;
+        for (int i = 0; i < numTerminos; i++) {
+            claves[i] = terminos.get(i).getBytes(StandardCharsets.UTF_8);
+            orden[i] = i;
+            longitudMaxima = Math.max(longitudMaxima, claves[i].length);
+        }
+        // Ordeno por bytes UTF-8 sin signo, que es el mismo orden que usa la busqueda
+        Arrays.sort(orden, (a, b) -> Arrays.compareUnsigned(claves[a], claves[b]));
+
+        int numBloques = (numTerminos + TAM_BLOQUE - 1) / TAM_BLOQUE;
+        int[] desplazamientos = new int[numBloques];
+        ByteArrayOutputStream bloques = new ByteArrayOutputStream();
+        byte[] anterior = new byte[0];
+        for (int i = 0; i < numTerminos; i++) {
+            byte[] clave = claves[orden[i]];
+            if (i % TAM_BLOQUE == 0) {
+                desplazamientos[i / TAM_BLOQUE] = bloques.size();
+                escribirVByte(bloques, clave.length);
+                bloques.write(clave, 0, clave.length);
+            } else {
+                int comun = Arrays.mismatch(anterior, clave);
+                if (comun < 0)
+                    comun = clave.length;
+                escribirVByte(bloques, comun);
+                escribirVByte(bloques, clave.length - comun);
+                bloques.write(clave, comun, clave.length - comun);
+            }
+            escribirVByte(bloques, orden[i]);
+            anterior = clave;
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fichero)))) {
+            out.writeInt(numTerminos);
+            out.writeInt(TAM_BLOQUE);
+            out.writeInt(numBloques);
+            out.writeInt(longitudMaxima);
+            for (int desplazamiento : desplazamientos)
+                out.writeInt(desplazamiento);
+            bloques.writeTo(out);
+        }
+    }
+
+    private static void escribirVByte(ByteArrayOutputStream out, int valor) {
+        while ((valor & ~0x7f) != 0) {
+            out.write((valor & 0x7f) | 0x80);
+            valor >>>= 7;
+        }
+        out.write(valor);
+    }
+}
@@ -0,0 +1,118 @@
+package utility;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Deteccion de documentos casi duplicados con SimHash.
+ * <p>
+ * Cada documento se resume en una firma de 64 bits calculada a partir de sus
+ * terminos (ya con stemming) ponderados por su frecuencia. Dos documentos se
+ * consideran duplicados si sus firmas se diferencian en como mucho
+ * DISTANCIA_MAXIMA bits. Para no comparar cada documento con todos los
+ * anteriores la firma se parte en DISTANCIA_MAXIMA + 1 bandas: si dos firmas
+ * estan a esa distancia o menos, al menos una banda es identica, asi que solo se
+ * comparan los documentos que comparten alguna banda (LSH).
+ * <p>
+ * Solo se guardan las firmas del primer documento de cada grupo (el
+ * representante); el resto de documentos del grupo se asocian a el.
+ */
+public class Duplicados {
+    private static final int DISTANCIA_MAXIMA = 3;
+    private static final int BANDAS = DISTANCIA_MAXIMA + 1;
+    private static final int BITS_BANDA = 64 / BANDAS;
+
+    // Nombre y firma de cada representante
+    private final List<String> representantes = new ArrayList<>();
+    private final List<Long> firmas = new ArrayList<>();
+    // Para cada banda: valor de la banda -> representantes que lo tienen
+    private final List<Map<Long, List<Integer>>> tablas = new ArrayList<>();
+    // Documento duplicado -> su representante
+    private final Map<String, String> grupos = new HashMap<>();
+
+    public Duplicados() {
+        for (int b = 0; b < BANDAS; b++)
+            tablas.add(new HashMap<>());
+    }
+
+    // Firma SimHash de un documento a partir de la frecuencia de sus terminos
+    public static long simhash(Map<String, Integer> frecuencias) {
+        long[] pesos = new long[64];
+        for (Map.Entry<String, Integer> entry : frecuencias.entrySet()) {
+            long hash = hash(entry.getKey());
+            int frecuencia = entry.getValue();
+            for (int bit = 0; bit < 64; bit++) {
+                if ((hash >>> bit & 1) != 0)
+                    pesos[bit] += frecuencia;
+                else
+                    pesos[bit] -= frecuencia;
+            }
+        }
+        long firma = 0;
+        for (int bit = 0; bit < 64; bit++)
+            if (pesos[bit] > 0)
+                firma |= 1L << bit;
+        return firma;
+    }
+
+    // FNV-1a de 64 bits con una mezcla final para repartir bien los bits
+    private static long hash(String termino) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : termino.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    // Busca un representante casi igual al documento. Si lo hay, el documento queda
+    // en su grupo y se devuelve el nombre del representante; si no, el documento
+    // pasa a ser representante de un grupo nuevo y se devuelve null
+    public String buscarOAnadir(String nombre, long firma) {
+        for (int b = 0; b < BANDAS; b++) {
+            List<Integer> candidatos = tablas.get(b).get(banda(firma, b));
+            if (candidatos == null)
+                continue;
+            for (int candidato : candidatos) {
+                if (Long.bitCount(firmas.get(candidato) ^ firma) <= DISTANCIA_MAXIMA) {
+                    String representante = representantes.get(candidato);
+                    grupos.put(nombre, representante);
+                    return representante;
+                }
+            }
+        }
+        int id = representantes.size();
+        representantes.add(nombre);
+        firmas.add(firma);
+        for (int b = 0; b < BANDAS; b++)
+            tablas.get(b).computeIfAbsent(banda(firma, b), k -> new ArrayList<>()).add(id);
+        return null;
+    }
+
+    private static long banda(long firma, int b) {
+        return (firma >>> (b * BITS_BANDA)) & ((1L << BITS_BANDA) - 1);
+    }
+
+    public int numDuplicados() {
+        return grupos.size();
+    }
+
+    // Guarda una linea "duplicado=representante" por cada documento duplicado
+    public void guardar(String fichero) throws IOException {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(fichero))) {
+            for (Map.Entry<String, String> entry : grupos.entrySet()) {
+                writer.write(entry.getKey() + "=" + entry.getValue());
+                writer.newLine();
+            }
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package utility;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Filtro de Bloom para cadenas. Puede dar falsos positivos (decir que una cadena
+ * ya se ha visto cuando no es asi) pero nunca falsos negativos, asi que un
+ * "no esta" es definitivo y un "puede estar" hay que confirmarlo aparte.
+ */
+public class FiltroBloom {
+    private final long[] bits;
+    private final int numBits;
+    private final int numHashes;
+
+    // Dimensiona el filtro para el numero de elementos esperado y la probabilidad
+    // de falso positivo deseada
+    public FiltroBloom(int elementosEsperados, double probabilidadFalsoPositivo) {
+        int n = Math.max(1, elementosEsperados);
+        long m = (long) Math.ceil(-n * Math.log(probabilidadFalsoPositivo) / (Math.log(2) * Math.log(2)));
+        numBits = (int) Math.max(64, Math.min(m, Integer.MAX_VALUE - 63));
+        numHashes = Math.max(1, (int) Math.round((double) numBits / n * Math.log(2)));
+        bits = new long[(numBits + 63) / 64];
+    }
+
+    public void anadir(String valor) {
+        long hash = hash(valor);
+        int h1 = (int) hash, h2 = (int) (hash >>> 32);
+        for (int i = 0; i < numHashes; i++) {
+            int bit = Math.floorMod(h1 + i * h2, numBits);
+            bits[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    public boolean puedeContener(String valor) {
+        long hash = hash(valor);
+        int h1 = (int) hash, h2 = (int) (hash >>> 32);
+        for (int i = 0; i < numHashes; i++) {
+            int bit = Math.floorMod(h1 + i * h2, numBits);
+            if ((bits[bit >>> 6] & (1L << bit)) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    // FNV-1a de 64 bits con una mezcla final
+    public static long hash(String valor) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : valor.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,72 @@
+package utility;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Conjunto de stopwords compilado en un trie compacto de arrays.
+ * <p>
+ * Las palabras van en un {@link TrieCompacto}: comprobar si un trozo de un char[]
+ * es una stopword es bajar por el trie con busquedas binarias y no crea ningun
+ * objeto. El trie no se modifica despues de construirlo, asi que lo pueden usar
+ * varios hilos a la vez.
+ */
+public class FiltroStopwords {
+    private final TrieCompacto trie;
+    private final int numPalabras;
+
+    // Construye el filtro a partir de cualquier lista de palabras
+    public FiltroStopwords(Collection<String> palabras) {
+        List<String> ordenadas = new ArrayList<>(new TreeSet<>(palabras));
+        numPalabras = ordenadas.size();
+        trie = TrieCompacto.construir(ordenadas);
+    }
+
+    // Carga una lista (una palabra por linea, UTF-8) que esta en el classpath, por
+    // ejemplo "/utility/stopwords-en.txt". Devuelve null si no se encuentra
+    public static FiltroStopwords desdeRecurso(String recurso) throws IOException {
+        InputStream in = FiltroStopwords.class.getResourceAsStream(recurso);
+        if (in == null)
+            return null;
+        List<String> palabras = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null)
+                palabras.add(line);
+        }
+        return new FiltroStopwords(palabras);
+    }
+
+    public static FiltroStopwords desdeFichero(Path fichero) throws IOException {
+        return new FiltroStopwords(Files.readAllLines(fichero));
+    }
+
+    public int size() {
+        return numPalabras;
+    }
+
+    // Si texto[desde, hasta) es una stopword
+    public boolean contiene(char[] texto, int desde, int hasta) {
+        int nodo = 0;
+        for (int i = desde; i < hasta; i++) {
+            nodo = trie.hijo(nodo, texto[i]);
+            if (nodo < 0)
+                return false;
+        }
+        return trie.palabra[nodo] >= 0;
+    }
+
+    public boolean contiene(CharSequence palabra) {
+        int nodo = trie.bajar(palabra);
+        return nodo >= 0 && trie.palabra[nodo] >= 0;
+    }
+}
@@ -0,0 +1,129 @@
+package utility;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Frontera de rastreo persistente.
+ * <p>
+ * Todo lo que pasa se apunta en frontera.log, una linea por suceso:
+ * <pre>
+ *   A profundidad url    la URL se ha anadido a la frontera
+ *   H url                la URL ya se ha procesado
+ * </pre>
+ * Al abrir la frontera se vuelve a leer el log, asi que tras una caida el
+ * rastreo continua con las URL que quedaron pendientes.
+ * <p>
+ * Para no anadir dos veces la misma URL se usa un filtro de Bloom en memoria y,
+ * cuando el filtro dice que puede estar, una comprobacion exacta en disco: las
+ * URL vistas se reparten en CUBOS ficheros segun su hash y solo se lee el cubo
+ * que le corresponde.
+ */
+public class FronteraRastreo implements Closeable {
+    private static final int CUBOS = 256;
+
+    private final Path directorio;
+    private final FiltroBloom bloom;
+    private final Deque<Tupla<String, Integer>> pendientes = new ArrayDeque<>();
+    private final BufferedWriter log;
+
+    public FronteraRastreo(String directorio, int urlsEsperadas) throws IOException {
+        this.directorio = Paths.get(directorio);
+        Files.createDirectories(this.directorio.resolve("vistas"));
+        bloom = new FiltroBloom(urlsEsperadas, 0.01);
+
+        // Reconstruyo el estado a partir del log
+        Path ficheroLog = this.directorio.resolve("frontera.log");
+        if (Files.exists(ficheroLog)) {
+            Set<String> hechas = new HashSet<>();
+            Map<String, Integer> anadidas = new LinkedHashMap<>();
+            try (BufferedReader reader = new BufferedReader(new FileReader(ficheroLog.toFile()))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] partes = line.split("\t");
+                    // Una linea cortada por una caida se ignora
+                    if (partes[0].equals("A") && partes.length == 3) {
+                        bloom.anadir(partes[2]);
+                        anadidas.putIfAbsent(partes[2], Integer.parseInt(partes[1]));
+                    } else if (partes[0].equals("H") && partes.length == 2) {
+                        hechas.add(partes[1]);
+                    }
+                }
+            }
+            for (Map.Entry<String, Integer> url : anadidas.entrySet())
+                if (!hechas.contains(url.getKey()))
+                    pendientes.add(new Tupla<>(url.getKey(), url.getValue()));
+        }
+        log = new BufferedWriter(new FileWriter(ficheroLog.toFile(), true));
+    }
+
+    // Anade la URL si nunca se ha visto. Devuelve false si ya estaba
+    public synchronized boolean anadir(String url, int profundidad) throws IOException {
+        if (bloom.puedeContener(url) && vistaEnDisco(url))
+            return false;
+        // Primero el log: si hay una caida antes de escribir el cubo, al reanudar la
+        // URL sigue pendiente
+        escribirLog("A\t" + profundidad + "\t" + url);
+        Files.writeString(cubo(url), url + "\n", StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        bloom.anadir(url);
+        pendientes.add(new Tupla<>(url, profundidad));
+        return true;
+    }
+
+    // Siguiente URL pendiente (con su profundidad) o null si no queda ninguna
+    public synchronized Tupla<String, Integer> siguiente() {
+        return pendientes.poll();
+    }
+
+    // Se apunta cuando la URL se ha procesado del todo, para no repetirla al reanudar
+    public synchronized void marcarHecha(String url) throws IOException {
+        escribirLog("H\t" + url);
+    }
+
+    public synchronized int numPendientes() {
+        return pendientes.size();
+    }
+
+    private boolean vistaEnDisco(String url) throws IOException {
+        Path cubo = cubo(url);
+        if (!Files.exists(cubo))
+            return false;
+        try (BufferedReader reader = Files.newBufferedReader(cubo)) {
+            String line;
+            while ((line = reader.readLine()) != null)
+                if (line.equals(url))
+                    return true;
+        }
+        return false;
+    }
+
+    private Path cubo(String url) {
+        int cubo = (int) Math.floorMod(FiltroBloom.hash(url) >>> 40, (long) CUBOS);
+        return directorio.resolve("vistas").resolve(String.format("%02x.txt", cubo));
+    }
+
+    private void escribirLog(String linea) throws IOException {
+        log.write(linea);
+        log.newLine();
+        log.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        log.close();
+    }
+}
@@ -0,0 +1,258 @@
+package utility;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Una generacion del indice cargada en memoria: diccionario, postings por termID
+ * y nombres de los documentos por docID. No se modifica despues de cargarla, asi
+ * que la pueden usar varios hilos a la vez.
+ * <p>
+ * Cada consulta adquiere la generacion antes de usarla y la libera al terminar.
+ * La referencia inicial la tiene el buscador mientras la generacion es la actual;
+ * cuando se sustituye por otra y la ultima consulta que la usaba termina, se
+ * cierra.
+ */
+public class Indice {
+    // Fichero que escribe el indexador al terminar con el numero de generacion
+    public static final String FICHERO_GENERACION = "indice.gen";
+    // Cada generacion tiene sus ficheros en un subdirectorio con su numero
+    public static final String DIRECTORIO_GENERACIONES = "generaciones";
+
+    public final String generacion;
+    public final Diccionario diccionario;
+    // Postings de cada termID, en el heap o fuera de el
+    public final AlmacenPostings postings;
+    // Nombre de cada documento, la posicion es su docID
+    public final List<String> nombresDocumentos = new ArrayList<>();
+
+    // Fichero de posiciones y sugerencias de autocompletado. Se abren al cargar la
+    // generacion: el indexador puede borrar su directorio mientras se sigue usando
+    private Posiciones posiciones;
+    private Autocompletado autocompletado;
+    // Intersecciones de pares de terminos frecuentes de esta generacion; null si no se usa
+    private volatile CacheIntersecciones intersecciones;
+
+    private final AtomicInteger referencias = new AtomicInteger(1);
+
+    private Indice(String generacion, Diccionario diccionario, AlmacenPostings postings) {
+        this.generacion = generacion;
+        this.diccionario = diccionario;
+        this.postings = postings;
+    }
+
+    // Carga el indice que hay en el directorio (normalmente "utility")
+    public static Indice cargar(String directorio) throws IOException {
+        return cargar(directorio, AlmacenPostings.enHeap());
+    }
+
+    // Carga el indice guardando el diccionario y los postings en el almacen indicado.
+    // Si falla la carga el almacen se cierra
+    public static Indice cargar(String directorio, AlmacenPostings almacen) throws IOException {
+        try {
+            // indice.gen se lee una sola vez: todos los ficheros son de la misma generacion
+            // aunque el indexador publique otra mientras tanto
+            String generacion = generacionEnDisco(directorio);
+            String datos = directorioDatos(directorio, generacion);
+            Indice indice = new Indice(generacion,
+                    new Diccionario(almacen.leer(Paths.get(datos, "diccionario.dat"))), almacen);
+            indice.cargarDocumentos(datos + "/longitud.dat");
+            indice.cargarIndexArchivo(datos + "/indice_invertido.dat");
+            indice.autocompletado = Autocompletado.cargar(datos + "/autocompletado.dat");
+            indice.posiciones = Posiciones.abrir(datos + "/posiciones.dat");
+            return indice;
+        } catch (IOException | RuntimeException e) {
+            almacen.close();
+            throw e;
+        }
+    }
+
+    // Identificador de la generacion que hay en disco: el contenido de indice.gen
+    // o, si no existe, la fecha de modificacion del indice invertido
+    public static String generacionEnDisco(String directorio) throws IOException {
+        Path gen = Paths.get(directorio, FICHERO_GENERACION);
+        if (Files.exists(gen))
+            return Files.readString(gen).trim();
+        return "t" + Files.getLastModifiedTime(Paths.get(directorio, "indice_invertido.dat")).toMillis();
+    }
+
+    // Directorio con los ficheros de la generacion. Los indices de antes de que hubiera
+    // directorios de generacion tienen los ficheros directamente en el directorio
+    public static String directorioDatos(String directorio, String generacion) {
+        Path datos = Paths.get(directorio, DIRECTORIO_GENERACIONES, generacion);
+        return Files.isDirectory(datos) ? datos.toString() : directorio;
+    }
+
+    public int numDocumentos() {
+        return nombresDocumentos.size();
+    }
+
+    public int numTerminos() {
+        return postings.numTerminos();
+    }
+
+    // termID del termino o -1 si no esta en el indice
+    public int idTermino(String termino) {
+        int id = diccionario.buscar(termino);
+        return id < postings.numTerminos() ? id : -1;
+    }
+
+    // Numero de documentos del termino, 0 si no esta en el indice
+    public int df(int termino) {
+        if (termino < 0 || termino >= postings.numTerminos())
+            return 0;
+        return postings.df(termino);
+    }
+
+    // Recorrido de los postings del termino; vacio si no esta en el indice
+    public AlmacenPostings.Cursor cursor(int termino) {
+        if (termino < 0 || termino >= postings.numTerminos())
+            return AlmacenPostings.VACIO;
+        return postings.cursor(termino);
+    }
+
+    // Documentos del termino ordenados por docID en un array nuevo. Solo para cuando
+    // la lista entera es el resultado: para intersecarla o recorrerla, cursor()
+    public int[] docs(int termino) {
+        if (termino < 0 || termino >= postings.numTerminos())
+            return new int[0];
+        return postings.docs(termino);
+    }
+
+    // Posiciones de los terminos, o null si el indice se construyo sin ellas
+    public synchronized Posiciones posiciones() {
+        return posiciones;
+    }
+
+    // Sugerencias para prefijos, o null si el indice no las tiene
+    public synchronized Autocompletado autocompletado() {
+        return autocompletado;
+    }
+
+    // Activa la cache de intersecciones con un presupuesto en bytes
+    public void usarCacheIntersecciones(long presupuesto) {
+        intersecciones = new CacheIntersecciones(postings, presupuesto);
+    }
+
+    public CacheIntersecciones intersecciones() {
+        return intersecciones;
+    }
+
+    // Intenta adquirir la generacion. Falla si ya se ha cerrado
+    public boolean adquirir() {
+        while (true) {
+            int actual = referencias.get();
+            if (actual == 0)
+                return false;
+            if (referencias.compareAndSet(actual, actual + 1))
+                return true;
+        }
+    }
+
+    public void liberar() {
+        if (referencias.decrementAndGet() == 0)
+            cerrar();
+    }
+
+    // Se llama cuando nadie usa ya la generacion
+    protected void cerrar() {
+        // Las entradas de la cache ya no las puede usar nadie
+        if (intersecciones != null)
+            intersecciones.vaciar();
+        postings.close();
+        nombresDocumentos.clear();
+        synchronized (this) {
+            try {
+                if (posiciones != null)
+                    posiciones.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            posiciones = null;
+            autocompletado = null;
+        }
+    }
+
+    // El fichero de longitudes tiene una linea por documento en orden de docID
+    private void cargarDocumentos(String fileName) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new FileReader(fileName))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int igual = line.lastIndexOf('=');
+                nombresDocumentos.add(igual < 0 ? line : line.substring(0, igual));
+            }
+        }
+    }
+
+    // Cada linea del archivo es un termino en orden de termID, asi que el termino
+    // no hace falta leerlo: se localiza con el diccionario
+    private void cargarIndexArchivo(String fileName) throws IOException {
+        if (postings.necesitaTamanos())
+            reservar(fileName);
+        Map<String, Integer> idsDocumento = new HashMap<>();
+        for (int doc = 0; doc < nombresDocumentos.size(); doc++)
+            idsDocumento.put(nombresDocumentos.get(doc), doc);
+        try (BufferedReader reader = new BufferedReader(new FileReader(fileName))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // Parsear cada linea del archivo
+                String[] parts = line.split(";");
+                ListaPostings documents = new ListaPostings();
+                // Una linea mal formateada se deja vacia para no desplazar los termID
+                if (parts.length < 3) {
+                    postings.anadir(0.0, documents);
+                    continue;
+                }
+
+                double idf = Double.parseDouble(parts[1]); // Segunda parte: IDF
+
+                // Procesar documentos-tf_idf asociados
+                for (int i = 2; i < parts.length; i++) {
+                    String[] docParts = parts[i].split("-", 2);
+                    if (docParts.length > 1) {
+                        String nombreDocumento = docParts[0];
+                        double tf_idf = Double.parseDouble(docParts[1]);
+                        // Un documento que no esta en el fichero de longitudes recibe un docID nuevo
+                        Integer doc = idsDocumento.get(nombreDocumento);
+                        if (doc == null) {
+                            doc = nombresDocumentos.size();
+                            nombresDocumentos.add(nombreDocumento);
+                            idsDocumento.put(nombreDocumento, doc);
+                        }
+                        documents.add(doc, tf_idf);
+                    }
+                }
+
+                // Agregar al indice invertido en la posicion de su termID
+                documents.ordenar();
+                postings.anadir(idf, documents);
+            }
+        }
+    }
+
+    // Primera pasada para un almacen que necesita saber el tamano antes de cargar:
+    // cuenta los terminos y, como mucho, los postings de cada uno
+    private void reservar(String fileName) throws IOException {
+        int terminos = 0;
+        long numPostings = 0;
+        try (BufferedReader reader = new BufferedReader(new FileReader(fileName))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                terminos++;
+                for (int i = 0; i < line.length(); i++)
+                    if (line.charAt(i) == ';')
+                        numPostings++;
+            }
+        }
+        postings.reservar(terminos, numPostings);
+    }
+}
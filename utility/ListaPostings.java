@@ -0,0 +1,57 @@
+package utility;
+
+import java.util.Arrays;
+
+/**
+ * Lista de postings de un termino con tipos primitivos: docID y peso de cada
+ * documento. Como los documentos se indexan en orden de docID, la lista queda
+ * ordenada por docID sin tener que ordenarla.
+ */
+public class ListaPostings {
+    public int[] docs;
+    public double[] pesos;
+    public int size;
+
+    public ListaPostings() {
+        docs = new int[4];
+        pesos = new double[4];
+        size = 0;
+    }
+
+    public void add(int doc, double peso) {
+        if (size == docs.length) {
+            docs = Arrays.copyOf(docs, size * 2);
+            pesos = Arrays.copyOf(pesos, size * 2);
+        }
+        docs[size] = doc;
+        pesos[size] = peso;
+        size++;
+    }
+
+    // Ajusta los arrays al numero de postings para que docs.length == size
+    public void recortar() {
+        docs = Arrays.copyOf(docs, size);
+        pesos = Arrays.copyOf(pesos, size);
+    }
+
+    // Ordena los postings por docID si no lo estaban ya
+    public void ordenar() {
+        for (int i = 1; i < size; i++) {
+            if (docs[i - 1] > docs[i]) {
+                Integer[] orden = new Integer[size];
+                for (int j = 0; j < size; j++)
+                    orden[j] = j;
+                Arrays.sort(orden, (a, b) -> Integer.compare(docs[a], docs[b]));
+                int[] nuevosDocs = new int[docs.length];
+                double[] nuevosPesos = new double[pesos.length];
+                for (int j = 0; j < size; j++) {
+                    nuevosDocs[j] = docs[orden[j]];
+                    nuevosPesos[j] = pesos[orden[j]];
+                }
+                docs = nuevosDocs;
+                pesos = nuevosPesos;
+                return;
+            }
+        }
+    }
+}
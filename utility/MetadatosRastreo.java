@@ -0,0 +1,145 @@
+package utility;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Metadatos de cada documento descargado (ETag, Last-Modified y hash del
+ * contenido) para hacer peticiones condicionales en el siguiente rastreo, y
+ * manifiesto de cambios para el indexador.
+ * <p>
+ * metadatos.dat tiene una linea por documento:
+ * <pre>
+ *   ruta \t etag \t last-modified \t sha-256 \t rastreo en el que se vio por ultima vez
+ * </pre>
+ * El manifiesto (cambios.txt) tiene una linea por documento cambiado:
+ * <pre>
+ *   A ruta    documento nuevo
+ *   M ruta    documento modificado
+ *   D ruta    documento que ya no esta en el sitio
+ * </pre>
+ * Las lineas se van anadiendo durante el rastreo; el indexador lo renombra a
+ * cambios.txt.procesado cuando lo ha aplicado.
+ */
+public class MetadatosRastreo {
+    public static final String MANIFIESTO = "cambios.txt";
+
+    public static class Entrada {
+        public String etag;
+        public String ultimaModificacion;
+        public String hash;
+        public String rastreo;
+
+        Entrada(String etag, String ultimaModificacion, String hash, String rastreo) {
+            this.etag = etag;
+            this.ultimaModificacion = ultimaModificacion;
+            this.hash = hash;
+            this.rastreo = rastreo;
+        }
+    }
+
+    private final Path fichero;
+    private final Path manifiesto;
+    private final Map<String, Entrada> entradas = new HashMap<>();
+
+    public MetadatosRastreo(String directorio) throws IOException {
+        fichero = Paths.get(directorio, "metadatos.dat");
+        manifiesto = Paths.get(directorio, MANIFIESTO);
+        if (Files.exists(fichero)) {
+            try (BufferedReader reader = new BufferedReader(new FileReader(fichero.toFile()))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] partes = line.split("\t", -1);
+                    if (partes.length == 5)
+                        entradas.put(partes[0], new Entrada(partes[1], partes[2], partes[3], partes[4]));
+                }
+            }
+        }
+    }
+
+    public synchronized Entrada get(String ruta) {
+        return entradas.get(ruta);
+    }
+
+    // Guarda los metadatos de un documento descargado y apunta en el manifiesto si es
+    // nuevo o ha cambiado (segun su hash)
+    public synchronized void actualizar(String ruta, String etag, String ultimaModificacion, String hash,
+            String rastreo) throws IOException {
+        Entrada anterior = entradas.get(ruta);
+        if (anterior == null)
+            apuntarCambio("A", ruta);
+        else if (!anterior.hash.equals(hash))
+            apuntarCambio("M", ruta);
+        entradas.put(ruta, new Entrada(etag == null ? "" : etag,
+                ultimaModificacion == null ? "" : ultimaModificacion, hash, rastreo));
+    }
+
+    // El documento no ha cambiado, pero se ha visto en este rastreo
+    public synchronized void visto(String ruta, String rastreo) {
+        Entrada entrada = entradas.get(ruta);
+        if (entrada != null)
+            entrada.rastreo = rastreo;
+    }
+
+    // Al terminar un rastreo completo: los documentos que no se han visto se apuntan
+    // como borrados y se devuelven para que el rastreador quite su copia local
+    public synchronized List<String> cerrarRastreo(String rastreo) throws IOException {
+        List<String> borrados = new ArrayList<>();
+        for (Map.Entry<String, Entrada> entry : entradas.entrySet())
+            if (!entry.getValue().rastreo.equals(rastreo))
+                borrados.add(entry.getKey());
+        for (String ruta : borrados) {
+            entradas.remove(ruta);
+            apuntarCambio("D", ruta);
+        }
+        return borrados;
+    }
+
+    // Escribe los metadatos en un fichero temporal y lo renombra, para no dejar nunca
+    // un fichero a medias
+    public synchronized void guardar() throws IOException {
+        Path temporal = Paths.get(fichero + ".tmp");
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(temporal.toFile()))) {
+            for (Map.Entry<String, Entrada> entry : entradas.entrySet()) {
+                Entrada e = entry.getValue();
+                writer.write(entry.getKey() + "\t" + e.etag + "\t" + e.ultimaModificacion + "\t" + e.hash + "\t"
+                        + e.rastreo);
+                writer.newLine();
+            }
+        }
+        Files.move(temporal, fichero, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void apuntarCambio(String tipo, String ruta) throws IOException {
+        // El indexador lo lee en UTF-8
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(manifiesto.toFile(), StandardCharsets.UTF_8, true))) {
+            writer.write(tipo + " " + ruta);
+            writer.newLine();
+        }
+    }
+
+    public static String sha256(byte[] contenido) {
+        try {
+            StringBuilder hex = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-256").digest(contenido))
+                hex.append(String.format("%02x", b));
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
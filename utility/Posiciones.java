@@ -0,0 +1,377 @@
+package utility;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Fichero de posiciones del indice posicional (utility/posiciones.dat).
+ * <p>
+ * Formato: MAGIA, numTerminos, el desplazamiento (long) del bloque de cada termID
+ * mas uno final, y los bloques. El bloque de un termino tiene una entrada por cada
+ * documento de su lista de postings, en el mismo orden, agrupadas en tramos de
+ * TRAMO documentos. Empieza con el numero de tramos y, por cada tramo, su primer
+ * docID y donde empiezan sus entradas (dos int). Cada entrada tiene el salto de
+ * docID desde la anterior del tramo, el numero de posiciones, los bytes que ocupan
+ * y los saltos entre posiciones, todo en vbyte. Las posiciones son el numero de
+ * termino dentro del documento ya preprocesado (sin stopwords).
+ * <p>
+ * El lector solo carga la tabla de desplazamientos al abrirse. Un cursor va
+ * directamente al tramo del documento que se le pide, lee del fichero solo los
+ * tramos por los que pasa y se salta las posiciones de los documentos que no se
+ * piden sin decodificarlas. El bloque entero de los terminos que se piden a menudo
+ * se queda en una cache.
+ */
+public class Posiciones implements Closeable {
+    // Distingue el formato con tramos del antiguo, que empezaba por numTerminos
+    private static final int MAGIA = 0x504f5332;
+    // Documentos por tramo
+    static final int TRAMO = 64;
+    // Veces que se tiene que pedir un termino para guardar su bloque en la cache
+    private static final int PETICIONES_MINIMAS = 2;
+    // Terminos distintos que se cuentan antes de envejecer los contadores
+    private static final int MAX_CONTADORES = 1 << 16;
+    private static final long PRESUPUESTO_CACHE = 32L << 20;
+
+    private final FileChannel canal;
+    private final long[] desplazamientos;
+    private final long inicioDatos;
+    // En orden de acceso: el primero es el que lleva mas tiempo sin usarse
+    private final LinkedHashMap<Integer, Bloque> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Integer, Integer> peticiones = new HashMap<>();
+    private long ocupados = 0;
+
+    // Tabla de tramos de un termino y, si esta en la cache, todas sus entradas
+    private static final class Bloque {
+        final int[] primerDoc, inicioTramo;
+        // Posicion de las entradas en el fichero y bytes que ocupan
+        final long inicioEntradas;
+        final int longitudEntradas;
+        final byte[] entradas;
+
+        Bloque(int[] primerDoc, int[] inicioTramo, long inicioEntradas, int longitudEntradas, byte[] entradas) {
+            this.primerDoc = primerDoc;
+            this.inicioTramo = inicioTramo;
+            this.inicioEntradas = inicioEntradas;
+            this.longitudEntradas = longitudEntradas;
+            this.entradas = entradas;
+        }
+
+        long bytes() {
+            return 64 + 8L * primerDoc.length + longitudEntradas;
+        }
+    }
+
+    private static final Bloque VACIO = new Bloque(new int[0], new int[0], 0, 0, new byte[0]);
+
+    private Posiciones(FileChannel canal) throws IOException {
+        this.canal = canal;
+        ByteBuffer cabecera = ByteBuffer.allocate(8);
+        leerCompleto(cabecera, 0);
+        if (cabecera.getInt(0) != MAGIA)
+            throw new IOException("posiciones.dat tiene el formato antiguo; hay que volver a indexar con -posiciones");
+        int numTerminos = cabecera.getInt(4);
+        ByteBuffer tabla = ByteBuffer.allocate(8 * (numTerminos + 1));
+        leerCompleto(tabla, 8);
+        desplazamientos = new long[numTerminos + 1];
+        tabla.flip();
+        tabla.asLongBuffer().get(desplazamientos);
+        inicioDatos = 8 + 8L * (numTerminos + 1);
+    }
+
+    // Abre el fichero de posiciones o devuelve null si el indice no lo tiene
+    public static Posiciones abrir(String fichero) throws IOException {
+        Path ruta = Paths.get(fichero);
+        if (!Files.exists(ruta))
+            return null;
+        FileChannel canal = FileChannel.open(ruta, StandardOpenOption.READ);
+        try {
+            return new Posiciones(canal);
+        } catch (IOException | RuntimeException e) {
+            canal.close();
+            throw e;
+        }
+    }
+
+    // Recorrido de las posiciones de un termino, documento a documento
+    public Cursor cursor(int termino) throws IOException {
+        if (termino < 0 || termino + 1 >= desplazamientos.length)
+            return new Cursor(this, VACIO);
+        boolean admitir;
+        synchronized (this) {
+            Bloque bloque = cache.get(termino);
+            if (bloque != null)
+                return new Cursor(this, bloque);
+            admitir = contar(termino) >= PETICIONES_MINIMAS;
+        }
+        Bloque bloque = leerBloque(termino, admitir);
+        if (bloque.entradas != null && bloque.bytes() <= PRESUPUESTO_CACHE / 8)
+            guardarEnCache(termino, bloque);
+        return new Cursor(this, bloque);
+    }
+
+    // Lee la tabla de tramos del termino y, si conEntradas, tambien todas sus entradas
+    private Bloque leerBloque(int termino, boolean conEntradas) throws IOException {
+        long inicio = inicioDatos + desplazamientos[termino];
+        long longitud = desplazamientos[termino + 1] - desplazamientos[termino];
+        if (longitud > Integer.MAX_VALUE || longitud < 4)
+            throw new IOException("Bloque de posiciones del termino " + termino + " no valido: " + longitud + " bytes");
+        ByteBuffer numTramos = ByteBuffer.allocate(4);
+        leerCompleto(numTramos, inicio);
+        int tramos = numTramos.getInt(0);
+        long longitudEntradas = longitud - 4 - 8L * tramos;
+        if (tramos < 0 || longitudEntradas < 0)
+            throw new IOException("Bloque de posiciones del termino " + termino + " corrupto");
+        ByteBuffer tabla = ByteBuffer.allocate(8 * tramos);
+        leerCompleto(tabla, inicio + 4);
+        int[] primerDoc = new int[tramos], inicioTramo = new int[tramos];
+        for (int t = 0; t < tramos; t++) {
+            primerDoc[t] = tabla.getInt(8 * t);
+            inicioTramo[t] = tabla.getInt(8 * t + 4);
+        }
+        long inicioEntradas = inicio + 4 + 8L * tramos;
+        byte[] entradas = null;
+        if (conEntradas) {
+            entradas = new byte[(int) longitudEntradas];
+            leerCompleto(ByteBuffer.wrap(entradas), inicioEntradas);
+        }
+        return new Bloque(primerDoc, inicioTramo, inicioEntradas, (int) longitudEntradas, entradas);
+    }
+
+    // Suma una peticion del termino y devuelve cuantas lleva. Cuando hay demasiados
+    // terminos se dividen todos los contadores entre dos
+    private int contar(int termino) {
+        if (peticiones.size() >= MAX_CONTADORES) {
+            peticiones.replaceAll((k, v) -> v / 2);
+            peticiones.values().removeIf(v -> v == 0);
+        }
+        return peticiones.merge(termino, 1, Integer::sum);
+    }
+
+    private synchronized void guardarEnCache(int termino, Bloque bloque) {
+        Bloque anterior = cache.put(termino, bloque);
+        if (anterior != null)
+            ocupados -= anterior.bytes();
+        ocupados += bloque.bytes();
+        peticiones.remove(termino);
+        Iterator<Bloque> lru = cache.values().iterator();
+        while (ocupados > PRESUPUESTO_CACHE && lru.hasNext()) {
+            ocupados -= lru.next().bytes();
+            lru.remove();
+        }
+    }
+
+    private void leerCompleto(ByteBuffer destino, long posicion) throws IOException {
+        while (destino.hasRemaining()) {
+            int leidos = canal.read(destino, posicion + destino.position());
+            if (leidos < 0)
+                throw new IOException("Fichero de posiciones truncado");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            cache.clear();
+            ocupados = 0;
+        }
+        canal.close();
+    }
+
+    public static class Cursor {
+        private final Posiciones origen;
+        private final Bloque bloque;
+        // Entradas del tramo actual: todas las del bloque si esta en memoria o las
+        // del tramo leidas del fichero
+        private byte[] datos;
+        private int tramo = -1;
+        private int pos = 0, fin = 0;
+        private int doc = 0;
+        private boolean hayEntrada = false;
+        private int numPosiciones = 0, inicioPosiciones = 0;
+
+        Cursor(Posiciones origen, Bloque bloque) {
+            this.origen = origen;
+            this.bloque = bloque;
+        }
+
+        // Avanza hasta el documento indicado. Los documentos se tienen que pedir en
+        // orden creciente. Devuelve false si el termino no esta en ese documento
+        public boolean avanzarA(int objetivo) throws IOException {
+            if (hayEntrada && doc >= objetivo)
+                return doc == objetivo;
+            // Ultimo tramo que empieza en un documento menor o igual que el objetivo
+            int t = Arrays.binarySearch(bloque.primerDoc, objetivo);
+            if (t < 0)
+                t = -t - 2;
+            if (t < 0)
+                return false;
+            if (t > tramo)
+                irATramo(t);
+            while (true) {
+                if (pos >= fin) {
+                    // El objetivo no esta; el cursor se queda en el siguiente documento
+                    hayEntrada = false;
+                    if (tramo + 1 >= bloque.primerDoc.length)
+                        return false;
+                    irATramo(tramo + 1);
+                }
+                doc += leerVByte();
+                numPosiciones = leerVByte();
+                int bytes = leerVByte();
+                inicioPosiciones = pos;
+                pos += bytes;
+                hayEntrada = true;
+                if (doc >= objetivo)
+                    return doc == objetivo;
+            }
+        }
+
+        private void irATramo(int t) throws IOException {
+            tramo = t;
+            doc = bloque.primerDoc[t];
+            int inicio = bloque.inicioTramo[t];
+            int finTramo = t + 1 < bloque.inicioTramo.length ? bloque.inicioTramo[t + 1] : bloque.longitudEntradas;
+            if (bloque.entradas != null) {
+                datos = bloque.entradas;
+                pos = inicio;
+                fin = finTramo;
+            } else {
+                int longitud = finTramo - inicio;
+                if (datos == null || datos.length < longitud)
+                    datos = new byte[longitud];
+                origen.leerCompleto(ByteBuffer.wrap(datos, 0, longitud), bloque.inicioEntradas + inicio);
+                pos = 0;
+                fin = longitud;
+            }
+        }
+
+        // Posiciones (ordenadas) del documento actual. Solo se decodifican al pedirlas
+        public int[] posiciones() {
+            int[] resultado = new int[numPosiciones];
+            int siguiente = pos;
+            pos = inicioPosiciones;
+            int anterior = 0;
+            for (int i = 0; i < numPosiciones; i++) {
+                anterior += leerVByte();
+                resultado[i] = anterior;
+            }
+            pos = siguiente;
+            return resultado;
+        }
+
+        private int leerVByte() {
+            int valor = 0, desplazamiento = 0;
+            byte b;
+            do {
+                b = datos[pos++];
+                valor |= (b & 0x7f) << desplazamiento;
+                desplazamiento += 7;
+            } while ((b & 0x80) != 0);
+            return valor;
+        }
+    }
+
+    /**
+     * Posiciones de un termino mientras se construye el indice. Los documentos se
+     * anaden en orden de docID.
+     */
+    public static class Lista {
+        private final ByteArrayOutputStream entradas = new ByteArrayOutputStream();
+        // Primer docID e inicio de las entradas de cada tramo
+        private int[] tramos = new int[2];
+        private int numEntradas = 0;
+        private int ultimoDoc = 0;
+
+        public void anadir(int doc, List<Integer> posiciones) {
+            if (numEntradas % TRAMO == 0) {
+                int t = numEntradas / TRAMO;
+                if (2 * t + 2 > tramos.length)
+                    tramos = Arrays.copyOf(tramos, tramos.length * 2);
+                tramos[2 * t] = doc;
+                tramos[2 * t + 1] = entradas.size();
+                ultimoDoc = doc;
+            }
+            escribirVByte(entradas, doc - ultimoDoc);
+            escribirVByte(entradas, posiciones.size());
+            int bytes = 0, anterior = 0;
+            for (int posicion : posiciones) {
+                bytes += longitudVByte(posicion - anterior);
+                anterior = posicion;
+            }
+            escribirVByte(entradas, bytes);
+            anterior = 0;
+            for (int posicion : posiciones) {
+                escribirVByte(entradas, posicion - anterior);
+                anterior = posicion;
+            }
+            ultimoDoc = doc;
+            numEntradas++;
+        }
+
+        private int numTramos() {
+            return (numEntradas + TRAMO - 1) / TRAMO;
+        }
+
+        long longitud() {
+            return 4 + 8L * numTramos() + entradas.size();
+        }
+
+        void escribir(DataOutputStream out) throws IOException {
+            out.writeInt(numTramos());
+            for (int t = 0; t < numTramos(); t++) {
+                out.writeInt(tramos[2 * t]);
+                out.writeInt(tramos[2 * t + 1]);
+            }
+            entradas.writeTo(out);
+        }
+    }
+
+    // Guarda las listas, la posicion en la lista es el termID
+    public static void guardar(List<Lista> listas, String fichero) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fichero)))) {
+            out.writeInt(MAGIA);
+            out.writeInt(listas.size());
+            long desplazamiento = 0;
+            for (Lista lista : listas) {
+                out.writeLong(desplazamiento);
+                desplazamiento += lista.longitud();
+            }
+            out.writeLong(desplazamiento);
+            for (Lista lista : listas)
+                lista.escribir(out);
+        }
+    }
+
+    private static void escribirVByte(ByteArrayOutputStream out, int valor) {
+        while ((valor & ~0x7f) != 0) {
+            out.write((valor & 0x7f) | 0x80);
+            valor >>>= 7;
+        }
+        out.write(valor);
+    }
+
+    private static int longitudVByte(int valor) {
+        int bytes = 1;
+        while ((valor & ~0x7f) != 0) {
+            bytes++;
+            valor >>>= 7;
+        }
+        return bytes;
+    }
+}
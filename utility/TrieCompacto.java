@@ -0,0 +1,101 @@
+package utility;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Trie de arrays que comparten {@link FiltroStopwords} y {@link Autocompletado}.
+ * <p>
+ * Cada nodo guarda donde empiezan sus hijos y cuantos tiene; los hijos de un nodo
+ * estan seguidos y ordenados por caracter, asi que bajar un nivel es una busqueda
+ * binaria en {@code etiquetas}. La arista i lleva al nodo i + 1 y el nodo 0 es la
+ * raiz. No se modifica despues de construirlo.
+ */
+final class TrieCompacto {
+    final int[] primerHijo;
+    final int[] numHijos;
+    final char[] etiquetas;
+    // Solo al construirlo: posicion en la lista de la palabra que acaba en cada nodo, o -1
+    final int[] palabra;
+
+    TrieCompacto(int[] primerHijo, int[] numHijos, char[] etiquetas) {
+        this(primerHijo, numHijos, etiquetas, null);
+    }
+
+    private TrieCompacto(int[] primerHijo, int[] numHijos, char[] etiquetas, int[] palabra) {
+        this.primerHijo = primerHijo;
+        this.numHijos = numHijos;
+        this.etiquetas = etiquetas;
+        this.palabra = palabra;
+    }
+
+    /**
+     * Construye el trie de una lista de palabras ordenada y sin repetidas. Asi los
+     * hijos de cada nodo salen ya ordenados y seguidos si el trie se recorre por
+     * niveles, y cada nodo es un rango [desde, hasta) de la lista que comparte los
+     * primeros nivel caracteres.
+     */
+    static TrieCompacto construir(List<String> ordenadas) {
+        List<int[]> nodos = new ArrayList<>();
+        nodos.add(new int[] { 0, ordenadas.size(), 0 });
+        List<Integer> primeros = new ArrayList<>();
+        List<Integer> cuantos = new ArrayList<>();
+        List<Integer> finales = new ArrayList<>();
+        StringBuilder aristas = new StringBuilder();
+        for (int n = 0; n < nodos.size(); n++) {
+            int desde = nodos.get(n)[0], hasta = nodos.get(n)[1], nivel = nodos.get(n)[2];
+            int i = desde;
+            // La palabra que acaba en este nodo va la primera del rango
+            if (i < hasta && ordenadas.get(i).length() == nivel) {
+                finales.add(i);
+                i++;
+            } else {
+                finales.add(-1);
+            }
+            primeros.add(aristas.length());
+            int hijos = 0;
+            while (i < hasta) {
+                char c = ordenadas.get(i).charAt(nivel);
+                int j = i;
+                while (j < hasta && ordenadas.get(j).charAt(nivel) == c)
+                    j++;
+                aristas.append(c);
+                nodos.add(new int[] { i, j, nivel + 1 });
+                hijos++;
+                i = j;
+            }
+            cuantos.add(hijos);
+        }
+
+        int numNodos = nodos.size();
+        int[] primerHijo = new int[numNodos];
+        int[] numHijos = new int[numNodos];
+        int[] palabra = new int[numNodos];
+        for (int n = 0; n < numNodos; n++) {
+            primerHijo[n] = primeros.get(n);
+            numHijos[n] = cuantos.get(n);
+            palabra[n] = finales.get(n);
+        }
+        return new TrieCompacto(primerHijo, numHijos, aristas.toString().toCharArray(), palabra);
+    }
+
+    int numNodos() {
+        return primerHijo.length;
+    }
+
+    // Nodo al que se llega desde nodo con el caracter c, o -1
+    int hijo(int nodo, char c) {
+        int desde = primerHijo[nodo];
+        int i = Arrays.binarySearch(etiquetas, desde, desde + numHijos[nodo], c);
+        return i < 0 ? -1 : i + 1;
+    }
+
+    // Nodo al que se llega con el prefijo, o -1
+    int bajar(CharSequence prefijo) {
+        int nodo = 0;
+        for (int i = 0; i < prefijo.length() && nodo >= 0; i++)
+            nodo = hijo(nodo, prefijo.charAt(i));
+        return nodo;
+    }
+}
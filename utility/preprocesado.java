@@ -1,27 +1,29 @@
 package utility;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 import java.util.regex.Matcher;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.Set;
 
 public class preprocesado {
 
-    private static Set<String> STOPWORDS = new HashSet<>();
+    // Lo comparten el indexador y el buscador. Se busca primero en el classpath y si
+    // no esta, en el directorio utility desde donde se ejecuta
+    private static FiltroStopwords STOPWORDS = new FiltroStopwords(new HashSet<>());
 
     static {
         try {
-            STOPWORDS = new HashSet<>(Files.readAllLines(Paths.get("./utility/stopwords-en.txt")));
+            FiltroStopwords filtro = FiltroStopwords.desdeRecurso("/utility/stopwords-en.txt");
+            STOPWORDS = filtro != null ? filtro : FiltroStopwords.desdeFichero(Paths.get("./utility/stopwords-en.txt"));
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
+    public static FiltroStopwords stopwords() {
+        return STOPWORDS;
+    }
+
     public static String procesar(String cad) {
         cad = minusculas(cad);
         cad = eliminar_signos(cad);
@@ -60,11 +62,30 @@ public class preprocesado {
         return cad.replaceAll("\\s+", " ");
     }
 
+    // Despues de eliminar_espacios las palabras estan separadas por un solo espacio.
+    // Cada palabra se comprueba sobre el char[] del texto, sin crear un String por palabra
     private static String eliminar_stopwords(String cad) {
-        ArrayList<String> aux = Stream.of(cad.split("\\s"))
-                .collect(Collectors.toCollection(ArrayList<String>::new));
-        aux.removeAll(STOPWORDS);
-        return aux.stream().collect(Collectors.joining(" "));
+        char[] texto = cad.toCharArray();
+        // Los espacios del final no dejan palabra vacia
+        int fin = texto.length;
+        while (fin > 0 && texto[fin - 1] == ' ')
+            fin--;
+        StringBuilder resultado = new StringBuilder(fin);
+        boolean primera = true;
+        int inicio = 0;
+        while (inicio <= fin) {
+            int espacio = inicio;
+            while (espacio < fin && texto[espacio] != ' ')
+                espacio++;
+            if (!STOPWORDS.contiene(texto, inicio, espacio)) {
+                if (!primera)
+                    resultado.append(' ');
+                resultado.append(texto, inicio, espacio - inicio);
+                primera = false;
+            }
+            inicio = espacio + 1;
+        }
+        return resultado.toString();
     }
 
     public static void main(String[] args) {